@@ -0,0 +1,175 @@
+package http.benchmark;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import http.HttpHeaders;
+import http.HttpMethod;
+import http.HttpRequest;
+import http.HttpResponse;
+import http.client.AsyncHttpClient;
+import http.client.AsyncHttpClientConfig;
+import http.util.future.IFuture;
+
+/**
+ * <pre>
+ * 端到端基准测试: 客户端通过回环地址访问进程内的{@link LocalHttpServer}
+ * 
+ * 吞吐量和延迟分位数(SampleTime)同时输出, 每次操作的内存分配通过 -prof gc 查看, 如:
+ * java -jar target/benchmarks.jar ClientBenchmark -prof gc
+ * </pre>
+ *
+ * @author lixiaohui
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ClientBenchmark {
+
+    /** 并发场景中每次操作同时发出的请求数 */
+    private static final int BATCH = 64;
+
+    /** 多服务端场景中的服务端(端口)数 */
+    private static final int HOSTS = 16;
+
+    @Param({ "1024" })
+    public int largeBodySize;
+
+    @Param({ "8" })
+    public int maxConnectionsEachServer;
+
+    private LocalHttpServer server;
+    private AsyncHttpClient client;
+
+    private HttpRequest smallGet;
+    private HttpRequest largeGet;
+    private HttpRequest largePost;
+    private HttpRequest[] hostRequests;
+
+    private int nextHost;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        server = new LocalHttpServer(HOSTS, 2);
+        AsyncHttpClientConfig config = new AsyncHttpClientConfig();
+        config.setConnectTimeout(3000);
+        config.setRequestTimeout(10000);
+        config.setIoThreads(2);
+        config.setMaxConnectionsEachServer(maxConnectionsEachServer);
+        client = new AsyncHttpClient(config);
+
+        smallGet = get(server.url(0, "/small"));
+        largeGet = get(server.url(0, LocalHttpServer.BYTES_PATH + largeBodySize * 1024));
+        largePost = new HttpRequest(URI.create(server.url(0, "/upload")), HttpMethod.POST,
+                new byte[largeBodySize * 1024], new HttpHeaders());
+        hostRequests = new HttpRequest[HOSTS];
+        for (int i = 0; i < HOSTS; i++) {
+            hostRequests[i] = get(server.url(i, "/small"));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        client.close();
+        server.close();
+    }
+
+    /**
+     * 小响应GET, 同步接口
+     */
+    @Benchmark
+    public HttpResponse smallGetRequest() throws IOException {
+        return client.request(smallGet);
+    }
+
+    /**
+     * 小响应GET, 异步接口后等待
+     */
+    @Benchmark
+    public Object smallGetExecute() throws Exception {
+        return await(client.execute(smallGet));
+    }
+
+    /**
+     * 大响应体下载
+     */
+    @Benchmark
+    public HttpResponse largeResponse() throws IOException {
+        return client.request(largeGet);
+    }
+
+    /**
+     * 大请求体上传
+     */
+    @Benchmark
+    public HttpResponse largeRequest() throws IOException {
+        return client.request(largePost);
+    }
+
+    /**
+     * 轮流访问多个服务端, 每个服务端有独立的连接池
+     */
+    @Benchmark
+    @Threads(4)
+    public HttpResponse manyHosts() throws IOException {
+        int index = nextHost++; // 不要求精确轮询, 允许竞争
+        return client.request(hostRequests[(index & Integer.MAX_VALUE) % HOSTS]);
+    }
+
+    /**
+     * 同时发出一批请求后等待全部完成, 连接池满时请求排队
+     */
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void highConcurrency(Blackhole bh) throws Exception {
+        IFuture[] futures = new IFuture[BATCH];
+        for (int i = 0; i < BATCH; i++) {
+            futures[i] = client.execute(smallGet);
+        }
+        for (IFuture future : futures) {
+            bh.consume(await(future));
+        }
+    }
+
+    /**
+     * 多个线程同时使用同步接口
+     */
+    @Benchmark
+    @Threads(16)
+    public HttpResponse highConcurrencyThreads() throws IOException {
+        return client.request(smallGet);
+    }
+
+    private static Object await(IFuture future) throws Exception {
+        future.await();
+        if (!future.isSuccessful()) {
+            throw new IOException(future.cause());
+        }
+        return future.getNow();
+    }
+
+    private static HttpRequest get(String url) {
+        return HttpRequest.builder().uri(url).build();
+    }
+}
@@ -0,0 +1,110 @@
+package http.benchmark;
+
+import java.io.Closeable;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandler.Sharable;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpServerCodec;
+import io.netty.handler.codec.http.HttpVersion;
+
+/**
+ * <pre>
+ * 基准测试用的本地HTTP桩服务, 监听回环地址上的一个或多个端口
+ * 
+ * 响应体长度由路径/bytes/{size}指定(其它路径为32字节), 响应体预先分配, 不在服务端产生额外开销.
+ * 请求体被丢弃.
+ * </pre>
+ *
+ * @author lixiaohui
+ */
+public class LocalHttpServer implements Closeable {
+
+    private static final int MAX_BODY_SIZE = 16 << 20;
+
+    static final String BYTES_PATH = "/bytes/";
+
+    private static final ByteBuf BODY = Unpooled.unreleasableBuffer(Unpooled.directBuffer(MAX_BODY_SIZE)
+            .writeZero(MAX_BODY_SIZE));
+
+    private final EventLoopGroup group;
+
+    private final List<Channel> channels = new ArrayList<>();
+
+    private final List<Integer> ports = new ArrayList<>();
+
+    /**
+     * @param portCount 监听的端口数, 每个端口对客户端来说是一个独立的服务端
+     * @param ioThreads 服务端io线程数
+     */
+    public LocalHttpServer(int portCount, int ioThreads) throws InterruptedException {
+        this.group = new NioEventLoopGroup(ioThreads);
+        ServerBootstrap bootstrap = new ServerBootstrap().group(group).channel(NioServerSocketChannel.class)
+                .childHandler(new ChannelInitializer<Channel>() {
+
+                    @Override
+                    protected void initChannel(Channel ch) throws Exception {
+                        ch.pipeline().addLast(new HttpServerCodec());
+                        ch.pipeline().addLast(new HttpObjectAggregator(MAX_BODY_SIZE));
+                        ch.pipeline().addLast(StubHandler.INSTANCE);
+                    }
+                });
+        for (int i = 0; i < portCount; i++) {
+            Channel channel = bootstrap.bind("127.0.0.1", 0).sync().channel();
+            channels.add(channel);
+            ports.add(((InetSocketAddress) channel.localAddress()).getPort());
+        }
+    }
+
+    public List<Integer> ports() {
+        return ports;
+    }
+
+    public String url(int index, String path) {
+        return "http://127.0.0.1:" + ports.get(index % ports.size()) + path;
+    }
+
+    @Override
+    public void close() {
+        for (Channel channel : channels) {
+            channel.close().syncUninterruptibly();
+        }
+        group.shutdownGracefully().syncUninterruptibly();
+    }
+
+    @Sharable
+    private static final class StubHandler extends SimpleChannelInboundHandler<FullHttpRequest> {
+
+        static final StubHandler INSTANCE = new StubHandler();
+
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, FullHttpRequest request) throws Exception {
+            int size = 32;
+            String uri = request.uri();
+            if (uri.startsWith(BYTES_PATH)) {
+                size = Math.min(MAX_BODY_SIZE, Integer.parseInt(uri.substring(BYTES_PATH.length())));
+            }
+            FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK,
+                    BODY.retainedSlice(0, size));
+            response.headers().setInt(HttpHeaderNames.CONTENT_LENGTH, size);
+            ctx.writeAndFlush(response);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package http.benchmark.util;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import http.util.ConcurrentHashSet;
+
+/**
+ * <pre>
+ * {@link ConcurrentHashSet}在多线程下的增删, 对应客户端登记和移除在途请求的路径
+ * 
+ * java -jar target/benchmarks.jar ConcurrentHashSetBenchmark -prof gc
+ * </pre>
+ *
+ * @author lixiaohui
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConcurrentHashSetBenchmark {
+
+    /** 常驻元素数, 模拟同时在途的请求 */
+    private static final int RESIDENT = 1024;
+
+    private final ConcurrentHashSet<Object> set = new ConcurrentHashSet<>();
+
+    @Setup
+    public void setup() {
+        for (int i = 0; i < RESIDENT; i++) {
+            set.add(new Object());
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Element {
+
+        final Object value = new Object();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public boolean churn1(Element element) {
+        return churn(element);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean churn4(Element element) {
+        return churn(element);
+    }
+
+    @Benchmark
+    @Threads(16)
+    public boolean churn16(Element element) {
+        return churn(element);
+    }
+
+    /**
+     * 每次请求对应一个新对象
+     */
+    @Benchmark
+    @Threads(16)
+    public boolean churnNewElement16() {
+        Object value = new Object();
+        set.add(value);
+        return set.remove(value);
+    }
+
+    private boolean churn(Element element) {
+        set.add(element.value);
+        return set.remove(element.value);
+    }
+}
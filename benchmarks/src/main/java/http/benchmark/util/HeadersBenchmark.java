@@ -0,0 +1,143 @@
+package http.benchmark.util;
+
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import http.HttpHeaders;
+import http.util.LinkedMultiValueMap;
+import io.netty.handler.codec.http.DefaultHttpHeaders;
+
+/**
+ * <pre>
+ * {@link HttpHeaders}和{@link LinkedMultiValueMap}的微基准测试, 使用典型的响应头集合
+ * 
+ * java -jar target/benchmarks.jar HeadersBenchmark -prof gc
+ * </pre>
+ *
+ * @author lixiaohui
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HeadersBenchmark {
+
+    private static final String[][] HEADERS = {
+            { "Content-Type", "application/json; charset=utf-8" },
+            { "Content-Length", "1024" },
+            { "Date", "Tue, 15 Nov 1994 08:12:31 GMT" },
+            { "Server", "nginx" },
+            { "Connection", "keep-alive" },
+            { "Cache-Control", "max-age=60" },
+            { "ETag", "\"33a64df551425fcc55e4d42a148795d9f25f89d4\"" },
+            { "Vary", "Accept-Encoding" },
+            { "Set-Cookie", "a=1; Path=/" },
+            { "Set-Cookie", "b=2; Path=/" },
+    };
+
+    private HttpHeaders headers;
+    private LinkedMultiValueMap<String, String> map;
+    private io.netty.handler.codec.http.HttpHeaders nettyHeaders;
+
+    @Setup
+    public void setup() {
+        headers = add();
+        map = new LinkedMultiValueMap<>();
+        for (String[] header : HEADERS) {
+            map.add(header[0], header[1]);
+        }
+        nettyHeaders = new DefaultHttpHeaders();
+        for (String[] header : HEADERS) {
+            nettyHeaders.add(header[0], header[1]);
+        }
+    }
+
+    /**
+     * 逐个添加响应头, 对应解码响应时的路径
+     */
+    @Benchmark
+    public HttpHeaders add() {
+        HttpHeaders headers = new HttpHeaders();
+        for (String[] header : HEADERS) {
+            headers.add(header[0], header[1]);
+        }
+        return headers;
+    }
+
+    @Benchmark
+    public void get(Blackhole bh) {
+        bh.consume(headers.get("Content-Type"));
+        bh.consume(headers.get("ETag"));
+        bh.consume(headers.get("X-Missing"));
+    }
+
+    @Benchmark
+    public void getFirst(Blackhole bh) {
+        bh.consume(headers.getFirst("Content-Type"));
+        bh.consume(headers.getFirst("ETag"));
+        bh.consume(headers.getFirst("X-Missing"));
+    }
+
+    /**
+     * 按下标遍历全部头, 对应转换为Netty请求头时的路径
+     */
+    @Benchmark
+    public int iterate() {
+        int size = 0;
+        for (int i = 0; i < headers.size(); i++) {
+            size += headers.name(i).length() + headers.value(i).length();
+        }
+        return size;
+    }
+
+    /**
+     * 按名字分组遍历
+     */
+    @Benchmark
+    public int iterateEntries() {
+        int size = 0;
+        for (Entry<String, List<String>> entry : headers) {
+            for (String value : entry.getValue()) {
+                size += entry.getKey().length() + value.length();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * 以Netty响应头的惰性视图创建后只读取一个头, 对应解码响应后只关心个别头的路径
+     */
+    @Benchmark
+    public String lazyGetFirst() {
+        return HttpHeaders.lazy(nettyHeaders).getFirst("Content-Type");
+    }
+
+    @Benchmark
+    public LinkedMultiValueMap<String, String> mapAdd() {
+        LinkedMultiValueMap<String, String> map = new LinkedMultiValueMap<>();
+        for (String[] header : HEADERS) {
+            map.add(header[0], header[1]);
+        }
+        return map;
+    }
+
+    @Benchmark
+    public String mapGetFirst() {
+        return map.getFirst("Set-Cookie");
+    }
+}
@@ -0,0 +1,66 @@
+package http.benchmark.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import http.util.future.DefaultPromise;
+
+/**
+ * <pre>
+ * 多个线程竞争等待{@link DefaultPromise}: 一个线程不断发布新的promise并完成上一个, 其余线程等待当前的promise, 
+ * 对应多个调用线程同步等待IO线程完成响应的场景
+ * 
+ * java -jar target/benchmarks.jar PromiseAwaitBenchmark -prof gc
+ * </pre>
+ *
+ * @author lixiaohui
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PromiseAwaitBenchmark {
+
+    @State(Scope.Group)
+    public static class Handoff {
+
+        final AtomicReference<DefaultPromise> current = new AtomicReference<>(new DefaultPromise());
+
+        @TearDown(Level.Iteration)
+        public void release() {
+            current.get().setSuccess(Boolean.TRUE);
+        }
+    }
+
+    @Benchmark
+    @Group("contendedAwait")
+    @GroupThreads(1)
+    public DefaultPromise completer(Handoff handoff) {
+        DefaultPromise previous = handoff.current.getAndSet(new DefaultPromise());
+        previous.setSuccess(Boolean.TRUE);
+        return previous;
+    }
+
+    @Benchmark
+    @Group("contendedAwait")
+    @GroupThreads(7)
+    public boolean waiter(Handoff handoff) throws InterruptedException {
+        // 有超时, 避免迭代结束时completer已停止而永久阻塞
+        return handoff.current.get().await(10, TimeUnit.MILLISECONDS);
+    }
+}
@@ -0,0 +1,132 @@
+package http.benchmark.util;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import http.util.future.CountDownFuture;
+import http.util.future.DefaultPromise;
+import http.util.future.IFuture;
+import http.util.future.IFutureListener;
+
+/**
+ * <pre>
+ * {@link DefaultPromise}和{@link CountDownFuture}的微基准测试
+ * 
+ * 每次请求都会创建并完成一个promise, 每次操作的内存分配通过 -prof gc 查看:
+ * java -jar target/benchmarks.jar PromiseBenchmark -prof gc
+ * </pre>
+ *
+ * @author lixiaohui
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PromiseBenchmark {
+
+    @Param({ "0", "1", "8" })
+    public int listenerCount;
+
+    /** 监听器以实例为键存储, 需要不同的实例 */
+    private IFutureListener[] listeners;
+
+    @Setup
+    public void setup() {
+        listeners = new IFutureListener[listenerCount];
+        for (int i = 0; i < listenerCount; i++) {
+            listeners[i] = new NoopListener();
+        }
+    }
+
+    /**
+     * 创建, 添加监听器, 完成并通知
+     */
+    @Benchmark
+    public DefaultPromise complete() {
+        DefaultPromise promise = new DefaultPromise();
+        for (IFutureListener listener : listeners) {
+            promise.addListener(listener);
+        }
+        promise.setSuccess(Boolean.TRUE);
+        return promise;
+    }
+
+    /**
+     * 完成后再添加监听器, 监听器被立即通知
+     */
+    @Benchmark
+    public DefaultPromise addListenerAfterDone() {
+        DefaultPromise promise = new DefaultPromise();
+        promise.setSuccess(Boolean.TRUE);
+        for (IFutureListener listener : listeners) {
+            promise.addListener(listener);
+        }
+        return promise;
+    }
+
+    /**
+     * 以失败完成
+     */
+    @Benchmark
+    public DefaultPromise fail() {
+        DefaultPromise promise = new DefaultPromise();
+        for (IFutureListener listener : listeners) {
+            promise.addListener(listener);
+        }
+        promise.setFailure(Failure.INSTANCE);
+        return promise;
+    }
+
+    /**
+     * 已完成的promise上等待, 即同步请求在响应先到达时的路径
+     */
+    @Benchmark
+    public IFuture awaitDone() throws InterruptedException {
+        DefaultPromise promise = new DefaultPromise();
+        promise.setSuccess(Boolean.TRUE);
+        return promise.await();
+    }
+
+    /**
+     * 计数为listenerCount + 1的CountDownFuture逐个倒数至完成
+     */
+    @Benchmark
+    public CountDownFuture countDown() {
+        CountDownFuture future = new CountDownFuture(listenerCount + 1);
+        for (int i = 0; i <= listenerCount; i++) {
+            future.countDown();
+        }
+        return future;
+    }
+
+    private static final class NoopListener implements IFutureListener {
+
+        @Override
+        public void operationCompleted(IFuture future) throws Exception {
+        }
+    }
+
+    private static final class Failure extends Exception {
+
+        private static final long serialVersionUID = 1L;
+
+        static final Failure INSTANCE = new Failure();
+
+        private Failure() {
+            super("benchmark", null, false, false);
+        }
+    }
+}
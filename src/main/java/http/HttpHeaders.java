@@ -1,48 +1,219 @@
 package http;
 
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 
-import http.util.LinkedMultiValueMap;
-import http.util.MultiValueMap;
-
+/**
+ * <pre>
+ * HTTP头
+ *
+ * 以扁平数组顺序存放name/value对, 同名的多个值各占一项, 单值的头不需要额外的容器对象.
+ * 名字大小写不敏感, {@link HttpHeaderNames}中已知的名字统一保存为其小写常量.
+ * 可以作为其它头集合(如Netty的响应头)的惰性视图创建, 首次访问时才复制, 见{@link #lazy(Iterable)}.
+ *
+ * 非线程安全, 但惰性视图的首次复制是线程安全的.
+ * </pre>
+ */
 public final class HttpHeaders implements Iterable<Entry<String, List<String>>>{
-    
-    private final MultiValueMap<String, String> headers = new LinkedMultiValueMap<>();
-    
+
+    private static final int INITIAL_CAPACITY = 8;
+
+    /** {@link HttpHeaderNames}中定义的所有头名字 */
+    private static final List<String> KNOWN_NAME_LIST = collectKnownNames();
+
+    /** 已知头名字的开放寻址表, 按大小写不敏感的hash存放 */
+    private static final String[] KNOWN_NAMES = knownNameTable(KNOWN_NAME_LIST);
+
+    /** names[i]: values[i]为第i个头, hashes[i]为名字大小写不敏感的hash, 查找时先比较hash */
+    private String[] names;
+    private String[] values;
+    private int[] hashes;
+    private int size;
+
+    /** 惰性视图的来源, 复制完成后为null */
+    private volatile Iterable<? extends Entry<String, String>> source;
+
+    public HttpHeaders() {
+    }
+
+    /**
+     * 复制other中的所有头
+     */
+    public HttpHeaders(HttpHeaders other) {
+        other.materialize();
+        if (other.size > 0) {
+            this.names = Arrays.copyOf(other.names, Math.max(other.size, INITIAL_CAPACITY));
+            this.values = Arrays.copyOf(other.values, this.names.length);
+            this.hashes = Arrays.copyOf(other.hashes, this.names.length);
+            this.size = other.size;
+        }
+    }
+
+    private HttpHeaders(Iterable<? extends Entry<String, String>> source) {
+        this.source = source;
+    }
+
+    /**
+     * 创建source的惰性视图, 首次访问时才复制source中的头, 此前source不能被修改
+     */
+    public static HttpHeaders lazy(Iterable<? extends Entry<String, String>> source) {
+        return new HttpHeaders(source);
+    }
+
     public void set(String name, String value) {
-        headers.set(name, value);
+        materialize();
+        int hash = hashIgnoreCase(name);
+        int i = indexOf(name, hash, 0);
+        if (i < 0) {
+            add0(name, hash, value);
+            return;
+        }
+        values[i] = value;
+        removeFrom(name, hash, i + 1);
     }
-    
+
     public void add(String name, String value){
-        headers.add(name, value);
+        materialize();
+        add0(name, hashIgnoreCase(name), value);
     }
-    
+
     public void add(String name, List<String> values) {
-        headers.addAll(name, values);
+        materialize();
+        int hash = hashIgnoreCase(name);
+        for (String value : values) {
+            add0(name, hash, value);
+        }
     }
-    
+
+    /**
+     * 名字为name的所有值, 不存在时返回null.
+     * <p>
+     * <b>不兼容的变更:</b> 返回的是不可修改的快照, 不再是头集合中的列表, 修改其内容会抛出
+     * {@link UnsupportedOperationException}. 增删值应使用{@link #add(String, String)}, {@link #set(String, String)}
+     * 和{@link #remove(String)}
+     */
     public List<String> get(String name) {
-        return headers.get(name);
+        materialize();
+        int hash = hashIgnoreCase(name);
+        int i = indexOf(name, hash, 0);
+        if (i < 0) {
+            return null;
+        }
+        int next = indexOf(name, hash, i + 1);
+        if (next < 0) {
+            return Collections.singletonList(values[i]);
+        }
+        List<String> list = new ArrayList<>(4);
+        list.add(values[i]);
+        for (; next >= 0; next = indexOf(name, hash, next + 1)) {
+            list.add(values[next]);
+        }
+        return Collections.unmodifiableList(list);
     }
-    
+
+    /**
+     * 名字为name的第一个值, 不存在时返回null
+     */
+    public String getFirst(String name) {
+        materialize();
+        int i = indexOf(name, hashIgnoreCase(name), 0);
+        return i < 0 ? null : values[i];
+    }
+
+    public boolean contains(String name) {
+        materialize();
+        return indexOf(name, hashIgnoreCase(name), 0) >= 0;
+    }
+
+    /**
+     * 删除名字为name的所有值
+     *
+     * @return 是否存在该头
+     */
+    public boolean remove(String name) {
+        materialize();
+        return removeFrom(name, hashIgnoreCase(name), 0);
+    }
+
+    /**
+     * 头的个数, 同名的多个值分别计数
+     */
+    public int size() {
+        materialize();
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * {@link HttpHeaderNames}中定义的所有头名字(小写), 解码器可以据此在不分配字符串的情况下识别已知的头
+     */
+    public static List<String> knownNames() {
+        return KNOWN_NAME_LIST;
+    }
+
+    /**
+     * 第index个头的名字, 与{@link #value(int)}配合可以无分配地遍历所有头
+     */
+    public String name(int index) {
+        materialize();
+        checkIndex(index);
+        return names[index];
+    }
+
+    /**
+     * 第index个头的值
+     */
+    public String value(int index) {
+        materialize();
+        checkIndex(index);
+        return values[index];
+    }
+
+    /**
+     * 按名字分组的快照, 每次调用都会重新构建, 逐个遍历应使用{@link #name(int)}和{@link #value(int)}.
+     * <p>
+     * <b>不兼容的变更:</b> 返回的集合, 其中的entry和值列表都不可修改, 也不会反映之后对头集合的修改;
+     * 通过它修改头(如{@code entry.setValue}, {@code entry.getValue().add})会抛出{@link UnsupportedOperationException}
+     */
     public Set<Entry<String, List<String>>> entrySet() {
-        return headers.entrySet();
+        materialize();
+        Map<String, List<String>> map = new LinkedHashMap<>();
+        for (int i = 0; i < size; i++) {
+            if (indexOf(names[i], hashes[i], 0) < i) { // 已随前面的同名头收集
+                continue;
+            }
+            List<String> list = new ArrayList<>(1);
+            for (int j = i; j >= 0; j = indexOf(names[i], hashes[i], j + 1)) {
+                list.add(values[j]);
+            }
+            map.put(names[i], Collections.unmodifiableList(list));
+        }
+        return Collections.unmodifiableMap(map).entrySet();
     }
-    
+
     @Override
     public Iterator<Entry<String, List<String>>> iterator() {
-        return headers.entrySet().iterator();
+        return entrySet().iterator();
     }
-    
+
     @Override
     public String toString() {
         StringBuilder buf = new StringBuilder();
         buf.append("[");
         boolean first = true;
-        for (Entry<String, List<String>> entry : headers.entrySet()) {
+        for (Entry<String, List<String>> entry : entrySet()) {
             if (first) {
                 first = false;
             } else {
@@ -59,7 +230,154 @@ public final class HttpHeaders implements Iterable<Entry<String, List<String>>>{
         buf.append("]");
         return buf.toString();
     }
-    
+
+    private void materialize() {
+        if (source == null) {
+            return;
+        }
+        synchronized (this) {
+            Iterable<? extends Entry<String, String>> src = source;
+            if (src == null) {
+                return;
+            }
+            for (Entry<String, String> entry : src) {
+                add0(entry.getKey(), hashIgnoreCase(entry.getKey()), entry.getValue());
+            }
+            source = null;
+        }
+    }
+
+    private void add0(String name, int hash, String value) {
+        if (names == null) {
+            names = new String[INITIAL_CAPACITY];
+            values = new String[INITIAL_CAPACITY];
+            hashes = new int[INITIAL_CAPACITY];
+        } else if (size == names.length) {
+            names = Arrays.copyOf(names, size << 1);
+            values = Arrays.copyOf(values, size << 1);
+            hashes = Arrays.copyOf(hashes, size << 1);
+        }
+        names[size] = intern(name, hash);
+        values[size] = value;
+        hashes[size] = hash;
+        size++;
+    }
+
+    private int indexOf(String name, int hash, int from) {
+        for (int i = from; i < size; i++) { // 以HttpHeaderNames常量查找时多数在这里命中
+            if (names[i] == name) {
+                return i;
+            }
+        }
+        for (int i = from; i < size; i++) {
+            if (hashes[i] == hash && nameEquals(names[i], name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private boolean removeFrom(String name, int hash, int from) {
+        int j = from;
+        for (int i = from; i < size; i++) {
+            if (hashes[i] != hash || !nameEquals(names[i], name)) {
+                names[j] = names[i];
+                values[j] = values[i];
+                hashes[j] = hashes[i];
+                j++;
+            }
+        }
+        boolean removed = j < size;
+        for (int i = j; i < size; i++) {
+            names[i] = null;
+            values[i] = null;
+        }
+        size = j;
+        return removed;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("index: " + index + ", size: " + size);
+        }
+    }
+
+    /**
+     * 头名字只含ASCII字符, 比{@link String#equalsIgnoreCase(String)}逐字符转换大小写更快
+     */
+    private static boolean nameEquals(String a, String b) {
+        if (a == b) {
+            return true;
+        }
+        final int length = a.length();
+        if (length != b.length()) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            char c1 = a.charAt(i);
+            char c2 = b.charAt(i);
+            if (c1 != c2 && toLowerCase(c1) != toLowerCase(c2)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static char toLowerCase(char c) {
+        return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+    }
+
+    /**
+     * 已知的头名字返回其小写常量, 使后续比较多数情况下只需比较引用
+     */
+    private static String intern(String name, int hash) {
+        final int mask = KNOWN_NAMES.length - 1;
+        for (int i = hash & mask;; i = (i + 1) & mask) {
+            String known = KNOWN_NAMES[i];
+            if (known == null) {
+                return name;
+            }
+            if (nameEquals(known, name)) {
+                return known;
+            }
+        }
+    }
+
+    private static int hashIgnoreCase(String s) {
+        int h = 0;
+        for (int i = 0; i < s.length(); i++) {
+            h = 31 * h + toLowerCase(s.charAt(i));
+        }
+        return h ^ (h >>> 16);
+    }
+
+    private static List<String> collectKnownNames() {
+        List<String> names = new ArrayList<>();
+        for (Field field : HttpHeaderNames.class.getFields()) {
+            if (Modifier.isStatic(field.getModifiers()) && field.getType() == String.class) {
+                try {
+                    names.add((String) field.get(null));
+                } catch (IllegalAccessException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        }
+        return Collections.unmodifiableList(names);
+    }
+
+    private static String[] knownNameTable(List<String> names) {
+        String[] table = new String[Integer.highestOneBit(names.size() * 4)];
+        final int mask = table.length - 1;
+        for (String name : names) {
+            int i = hashIgnoreCase(name) & mask;
+            while (table[i] != null) {
+                i = (i + 1) & mask;
+            }
+            table[i] = name;
+        }
+        return table;
+    }
+
     public static final class HttpHeaderNames {
         
         public static final String ACCEPT = "accept";
@@ -14,6 +14,13 @@ public enum HttpMethod {
         }
     }
 
+    /**
+     * 是否幂等方法(RFC 7231 4.2.2), 幂等请求在连接异常断开时可以安全重试
+     */
+    public boolean isIdempotent() {
+        return this != POST && this != PATCH;
+    }
+
     public static HttpMethod resolve(String method) {
         return (method != null ? mappings.get(method.toUpperCase()) : null);
     }
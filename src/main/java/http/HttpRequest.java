@@ -8,12 +8,22 @@ public class HttpRequest {
     private final URI uri;
     private final HttpMethod method;
     private final byte[] body;
+    private final RequestBody requestBody;
     private final HttpHeaders headers;
 
     public HttpRequest(URI uri, HttpMethod method, byte[] body, HttpHeaders headers) {
+        this(uri, method, body, null, headers);
+    }
+
+    public HttpRequest(URI uri, HttpMethod method, RequestBody requestBody, HttpHeaders headers) {
+        this(uri, method, null, requestBody, headers);
+    }
+
+    private HttpRequest(URI uri, HttpMethod method, byte[] body, RequestBody requestBody, HttpHeaders headers) {
         this.uri = uri;
         this.method = method;
         this.body = body;
+        this.requestBody = requestBody;
         this.headers = headers;
     }
 
@@ -29,6 +39,13 @@ public class HttpRequest {
         return body;
     }
 
+    /**
+     * 流式请求体, 与{@link #getBody()}互斥
+     */
+    public final RequestBody getRequestBody() {
+        return requestBody;
+    }
+
     public final HttpHeaders getHeaders() {
         return headers;
     }
@@ -52,10 +69,11 @@ public class HttpRequest {
         private URI uri;
         private HttpMethod method = HttpMethod.GET;
         private byte[] body;
+        private RequestBody requestBody;
         private HttpHeaders headers = new HttpHeaders();
 
         public HttpRequest build() {
-            return new HttpRequest(uri, method, body, headers);
+            return new HttpRequest(uri, method, body, requestBody, headers);
         }
 
         public HttpRequestBuilder uri(URI uri) {
@@ -75,6 +93,13 @@ public class HttpRequest {
 
         public HttpRequestBuilder body(byte[] body) {
             this.body = body;
+            this.requestBody = null;
+            return this;
+        }
+
+        public HttpRequestBuilder body(RequestBody requestBody) {
+            this.requestBody = requestBody;
+            this.body = null;
             return this;
         }
 
@@ -1,6 +1,9 @@
 package http;
 
 public class HttpStatus {
+
+    /** 按状态码索引的标准状态 */
+    private static final HttpStatus[] CANONICAL = new HttpStatus[600];
     
     public static final HttpStatus CONTINUE = newStatus(100, "Continue");
 
@@ -123,7 +126,27 @@ public class HttpStatus {
             newStatus(511, "Network Authentication Required");
     
     private static HttpStatus newStatus(int statusCode, String reasonPhrase) {
-        return new HttpStatus(statusCode, reasonPhrase);
+        HttpStatus status = new HttpStatus(statusCode, reasonPhrase);
+        CANONICAL[statusCode] = status;
+        return status;
+    }
+
+    /**
+     * 状态码对应的标准状态, 非标准的状态码返回null
+     */
+    public static HttpStatus valueOf(int code) {
+        return code >= 0 && code < CANONICAL.length ? CANONICAL[code] : null;
+    }
+
+    /**
+     * 状态码和原因短语都与标准状态一致时返回标准状态, 否则创建新的状态
+     */
+    public static HttpStatus valueOf(int code, String reasonPhrase) {
+        HttpStatus status = valueOf(code);
+        if (status != null && status.reasonPhrase.equals(reasonPhrase)) {
+            return status;
+        }
+        return new HttpStatus(code, reasonPhrase);
     }
     
     private final int code;
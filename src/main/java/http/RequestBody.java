@@ -0,0 +1,160 @@
+package http;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Objects;
+
+/**
+ * <pre>
+ * 流式请求体
+ *
+ * 与{@link HttpRequest#getBody()}不同, 流式请求体不需要事先全部加载到堆内存中, 适合上传大文件.
+ * 长度未知(-1)时以chunked方式传输.
+ * </pre>
+ *
+ * @author lixiaohui
+ */
+public abstract class RequestBody {
+
+    RequestBody() {
+    }
+
+    /**
+     * 请求体长度, 未知时为-1
+     */
+    public abstract long contentLength();
+
+    /**
+     * 是否可以重复发送, 只有可重复发送的请求体才会在连接断开时重试
+     */
+    public boolean isRepeatable() {
+        return false;
+    }
+
+    /**
+     * 以文件内容作为请求体, 明文连接上使用sendfile零拷贝发送
+     */
+    public static RequestBody ofFile(Path file) throws IOException {
+        return new FileBody(file.toFile(), null, 0, Files.size(file));
+    }
+
+    /**
+     * 以文件通道的指定区域作为请求体, 明文连接上使用sendfile零拷贝发送. 发送完毕后通道会被关闭
+     */
+    public static RequestBody ofFileChannel(FileChannel channel, long position, long count) {
+        return new FileBody(null, Objects.requireNonNull(channel, "channel"), position, count);
+    }
+
+    /**
+     * 以输入流作为请求体, 流在IO线程中读取, 发送完毕后会被关闭
+     *
+     * @param contentLength 长度, 未知时为-1
+     */
+    public static RequestBody ofInputStream(InputStream in, long contentLength) {
+        return new StreamBody(Objects.requireNonNull(in, "in"), contentLength);
+    }
+
+    /**
+     * 以{@link ChunkProducer}产生的数据块作为请求体, 以chunked方式传输
+     */
+    public static RequestBody ofChunks(ChunkProducer producer) {
+        return new ChunkedBody(Objects.requireNonNull(producer, "producer"));
+    }
+
+    /**
+     * 数据块生产者, 在IO线程中被调用, 不能长时间阻塞
+     */
+    public interface ChunkProducer {
+
+        /**
+         * @return 下一块数据, 返回null表示已没有更多数据
+         */
+        ByteBuffer nextChunk() throws Exception;
+    }
+
+    public static final class FileBody extends RequestBody {
+
+        private final File file;
+        private final FileChannel channel;
+        private final long position;
+        private final long count;
+
+        FileBody(File file, FileChannel channel, long position, long count) {
+            this.file = file;
+            this.channel = channel;
+            this.position = position;
+            this.count = count;
+        }
+
+        /**
+         * 文件, 以文件通道构造时为null
+         */
+        public File getFile() {
+            return file;
+        }
+
+        /**
+         * 文件通道, 以文件构造时为null
+         */
+        public FileChannel getChannel() {
+            return channel;
+        }
+
+        public long getPosition() {
+            return position;
+        }
+
+        @Override
+        public long contentLength() {
+            return count;
+        }
+
+        @Override
+        public boolean isRepeatable() {
+            return file != null;
+        }
+    }
+
+    public static final class StreamBody extends RequestBody {
+
+        private final InputStream in;
+        private final long contentLength;
+
+        StreamBody(InputStream in, long contentLength) {
+            this.in = in;
+            this.contentLength = contentLength;
+        }
+
+        public InputStream getInputStream() {
+            return in;
+        }
+
+        @Override
+        public long contentLength() {
+            return contentLength;
+        }
+    }
+
+    public static final class ChunkedBody extends RequestBody {
+
+        private final ChunkProducer producer;
+
+        ChunkedBody(ChunkProducer producer) {
+            this.producer = producer;
+        }
+
+        public ChunkProducer getProducer() {
+            return producer;
+        }
+
+        @Override
+        public long contentLength() {
+            return -1;
+        }
+    }
+}
@@ -3,47 +3,67 @@ package http.client;
 import java.io.Closeable;
 import java.io.IOException;
 import java.net.InetSocketAddress;
-import java.nio.ByteBuffer;
+import java.net.URI;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import http.HttpHeaders;
 import http.HttpHeaders.HttpHeaderNames;
 import http.HttpHeaders.HttpHeaderValues;
 import http.HttpMethod;
 import http.HttpRequest;
 import http.HttpResponse;
-import http.HttpResponse.HttpResponseBuilder;
 import http.HttpStatus;
+import http.client.MetricsCollector.ServerMetrics;
 import http.util.ConcurrentHashSet;
 import http.util.NamedThreadFactory;
 import http.util.future.IFuture;
 import http.util.future.IFutureListener;
+import http.util.future.IProgressiveFuture;
+import http.util.future.IProgressiveFutureListener;
+import http.util.future.SynchronousExecutor;
 import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
 import io.netty.channel.Channel;
+import io.netty.channel.ChannelDuplexHandler;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.ChannelPipeline;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.EventLoop;
 import io.netty.channel.EventLoopGroup;
-import io.netty.channel.SimpleChannelInboundHandler;
-import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.nio.NioSocketChannel;
-import io.netty.handler.codec.MessageToMessageCodec;
+import io.netty.handler.codec.DecoderException;
+import io.netty.handler.codec.MessageToMessageEncoder;
 import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.DefaultHttpRequest;
+import io.netty.handler.codec.http.FullHttpRequest;
 import io.netty.handler.codec.http.FullHttpResponse;
-import io.netty.handler.codec.http.HttpObjectAggregator;
-import io.netty.handler.codec.http.HttpRequestEncoder;
-import io.netty.handler.codec.http.HttpResponseDecoder;
+import io.netty.handler.codec.http.HttpResponseStatus;
 import io.netty.handler.codec.http.HttpVersion;
-import io.netty.util.AttributeKey;
+import io.netty.handler.stream.ChunkedWriteHandler;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timer;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.GenericFutureListener;
 
 /**
  * 异步HTTP客户端
@@ -57,25 +77,96 @@ public class AsyncHttpClient implements Closeable {
 
 	private static final Logger logger = LoggerFactory.getLogger(AsyncHttpClient.class);
 
-	private static final AttributeKey<ResponseFuture> ATTR_KEY_FUTURE = AttributeKey
-			.newInstance("HTTP_RESPONSE_FUTURE");
+	private static final int DEFAULT_PORT = 80;
+
+	/** 管线化模式下因连接断开而重试的最大次数 */
+	private static final int MAX_PIPELINING_RETRIES = 1;
 
 	private final AsyncHttpClientConfig config;
 
 	private final ChannelPool channelPool;
-	private final EventLoopGroup eventLoopGroup; // 共享io线程池
+	private final Http2ConnectionPool http2ConnectionPool; // 仅HTTP/2协议下使用
+	private final EventLoopGroup eventLoopGroup; // 共享io线程池, 分片中为分片的io线程
+	private final boolean ownsEventLoopGroup; // io线程池是否由客户端创建, 关闭客户端时一并关闭
+	private final boolean epoll; // 是否使用native epoll传输层
 	private final Bootstrap bootstrap;
+	private final HostResolver resolver; // 异步域名解析
+	private final Timer timer; // 请求超时检测
+	private final HttpCache httpCache; // 响应缓存, 未配置时为null
+
+	/** 分片模式下的各分片, 此时本实例只负责路由, 连接池等字段为null; 非分片模式以及分片本身为null */
+	private final AsyncHttpClient[] shards;
+	private final EventLoop shardLoop; // 分片的io线程, 不是分片时为null
 
 	private final ConcurrentHashSet<ResponseFuture> sentFutures = new ConcurrentHashSet<>();
 
 	private final AtomicBoolean closed = new AtomicBoolean();
 
 	public AsyncHttpClient(AsyncHttpClientConfig config) {
+		this(config, config.getEventLoopGroup() != null ? config.getEventLoopGroup()
+				: Transports.newEventLoopGroup(Transports.useEpoll(config), config.getIoThreads(),
+						new NamedThreadFactory("ATS-Monitor-Http-IOWorker")),
+				config.getEventLoopGroup() == null, -1);
+	}
+
+	/**
+	 * @param shardIndex 分片序号, 不是分片时为-1. 分片的eventLoopGroup是一个io线程, 分片的连接, 域名解析和超时检测都在该线程上
+	 */
+	private AsyncHttpClient(AsyncHttpClientConfig config, EventLoopGroup eventLoopGroup, boolean ownsEventLoopGroup,
+			int shardIndex) {
 		this.config = config;
-		this.eventLoopGroup = new NioEventLoopGroup(config.getIoThreads(),
-				new NamedThreadFactory("ATS-Monitor-Http-IOWorker"));
+		this.eventLoopGroup = eventLoopGroup;
+		this.ownsEventLoopGroup = ownsEventLoopGroup;
+		this.epoll = Transports.isEpoll(eventLoopGroup);
+		if (shardIndex < 0 && config.isShardPerEventLoop()) {
+			this.shards = newShards();
+			this.shardLoop = null;
+			this.bootstrap = null;
+			this.resolver = null;
+			this.channelPool = null;
+			this.http2ConnectionPool = null;
+			this.timer = null;
+			this.httpCache = null;
+			return;
+		}
+		this.shards = null;
+		this.shardLoop = shardIndex < 0 ? null : (EventLoop) eventLoopGroup;
+		MetricsCollector metricsCollector = shardIndex < 0 ? config.getMetricsCollector()
+				: ChannelMetrics.forShard(config.getMetricsCollector(), shardIndex);
 		this.bootstrap = createBootstrap(eventLoopGroup, config);
-		this.channelPool = new ChannelPool(bootstrap, config.getMaxConnectionsEachServer());
+		this.resolver = new HostResolver(eventLoopGroup.next(), epoll, config);
+		this.channelPool = new ChannelPool(bootstrap, resolver, config, metricsCollector);
+		this.http2ConnectionPool = config.getProtocol() == HttpProtocol.HTTP_2
+				? new Http2ConnectionPool(bootstrap, resolver, config, metricsCollector) : null;
+		this.timer = shardLoop != null ? new EventLoopTimer(shardLoop)
+				: new HashedWheelTimer(new NamedThreadFactory("ATS-Monitor-Http-Timer", true),
+						config.getTimeoutTickDuration(), TimeUnit.MILLISECONDS, config.getTimeoutTicksPerWheel());
+		this.httpCache = config.getResponseCache() == null ? null : new HttpCache(config.getResponseCache(),
+				config.isPooledResponseBody());
+	}
+
+	/**
+	 * 每个io线程创建一个分片
+	 */
+	private AsyncHttpClient[] newShards() {
+		List<AsyncHttpClient> shards = new ArrayList<>();
+		for (EventExecutor executor : eventLoopGroup) {
+			shards.add(new AsyncHttpClient(config, (EventLoop) executor, false, shards.size()));
+		}
+		return shards.toArray(new AsyncHttpClient[shards.size()]);
+	}
+
+	/**
+	 * 请求所属的分片: io线程中发出的请求属于该线程的分片, 其他线程发出的请求按主机名哈希
+	 */
+	private AsyncHttpClient shardOf(HttpRequest request) {
+		for (AsyncHttpClient shard : shards) {
+			if (shard.shardLoop.inEventLoop()) {
+				return shard;
+			}
+		}
+		String host = request.getUri().getHost();
+		return shards[host == null ? 0 : (host.hashCode() & Integer.MAX_VALUE) % shards.length];
 	}
 
 	private Bootstrap createBootstrap(EventLoopGroup bossGroup, AsyncHttpClientConfig config) {
@@ -84,17 +175,24 @@ public class AsyncHttpClient implements Closeable {
 		bootstrap.option(ChannelOption.SO_KEEPALIVE, true);
 		bootstrap.option(ChannelOption.TCP_NODELAY, true);
 		bootstrap.option(ChannelOption.CONNECT_TIMEOUT_MILLIS, config.getConnectTimeout());
-		bootstrap.channel(NioSocketChannel.class);
-		bootstrap.handler(new ChannelInitializer<NioSocketChannel>() {
+		Transports.configure(bootstrap, epoll, config);
+		bootstrap.handler(new ChannelInitializer<Channel>() {
 
 			@Override
-			protected void initChannel(NioSocketChannel ch) throws Exception {
+			protected void initChannel(Channel ch) throws Exception {
 				ChannelPipeline pipeline = ch.pipeline();
-				pipeline.addLast("HTTP_ENCODER", new HttpRequestEncoder());
-				pipeline.addLast("HTTP_DECODER", new HttpResponseDecoder());
-				pipeline.addLast("HTTP_AGGREGATOR", new HttpObjectAggregator(Integer.MAX_VALUE));
+				Transports.addFlushConsolidator(pipeline, config);
+				pipeline.addLast("HTTP_ENCODER", new RequestEncoder(config.isCompressionEnabled(),
+						config.getRequestCompressionThreshold()));
+				ResponseHandler responseHandler = new ResponseHandler();
+				pipeline.addLast("HTTP_DECODER", new ResponseDecoder(responseHandler, config.isPooledResponseBody(),
+						config.isCompressionEnabled(), config.getMaxContentLength()));
+				if (config.isCompressionEnabled()) {
+					pipeline.addLast("REQUEST_COMPRESSOR", new RequestCompressor(config.getRequestCompressionThreshold()));
+				}
+				pipeline.addLast("CHUNKED_WRITER", new ChunkedWriteHandler());
 				pipeline.addLast("HTTP_PROTOCOL_ADAPTER", new ProtocolAdapter());
-				pipeline.addLast("RESPONSE_HANDLER", new ResponseHandler());
+				pipeline.addLast("RESPONSE_HANDLER", responseHandler);
 			}
 		});
 		return bootstrap;
@@ -109,44 +207,228 @@ public class AsyncHttpClient implements Closeable {
 		if (future.isSuccessful()) {
 			return (HttpResponse) future.getNow();
 		} else {
-			Throwable e = future.cause();
-			if (e instanceof IOException) {
-				throw (IOException) e;
-			} else {
-				throw new IOException(e);
-			}
+			throw toIOException(future.cause());
 		}
 	}
 
 	/**
+	 * <pre>
 	 * 异步发送HTTP请求
+	 * 
+	 * 该方法不会阻塞调用线程, 获取连接和发送请求都是异步完成的. 
+	 * 配置了响应缓存时, 命中新鲜缓存的请求在调用线程中直接完成, 不会获取连接
+	 * </pre>
 	 */
 	public IFuture execute(HttpRequest request) {
-		final ResponseFuture future = new ResponseFuture(request, config.getRequestTimeout());
+		if (shards != null) {
+			return shardOf(request).execute(request);
+		}
+		return submit(request, null);
+	}
+
+	/**
+	 * <pre>
+	 * 批量异步发送HTTP请求
+	 * 
+	 * 请求按服务端分组, 同一连接上的多个请求只写入一次, 最后统一flush, 减少系统调用:
+	 * HTTP/2协议下同一连接上的请求合并flush; 管线化模式下每获取到一个连接就写入尽可能多的
+	 * 同组请求(不超过管线化深度)再flush; 非管线化的HTTP/1.1每个连接只承载一个请求, 与逐个调用
+	 * {@link #execute(HttpRequest)}相同. 分片模式下请求先按分片分组, 每个分片一个批次.
+	 * </pre>
+	 * 
+	 * @return 所有请求都完成后完成的聚合future, 各请求的结果见{@link BatchFuture#futures()}
+	 */
+	public BatchFuture executeAll(Collection<HttpRequest> requests) {
+		List<IFuture> futures = new ArrayList<>(requests.size());
+		Map<AsyncHttpClient, RequestBatch> batches = new LinkedHashMap<>();
+		for (HttpRequest request : requests) {
+			AsyncHttpClient client = shards == null ? this : shardOf(request);
+			RequestBatch batch = batches.get(client);
+			if (batch == null) {
+				batch = client.new RequestBatch();
+				batches.put(client, batch);
+			}
+			futures.add(client.submit(request, batch));
+		}
+		for (RequestBatch batch : batches.values()) {
+			batch.dispatch();
+		}
+		return new BatchFuture(futures, config.getCallbackExecutor());
+	}
+
+	/**
+	 * @param batch 非空时请求加入批次, 由批次统一发送
+	 */
+	private IFuture submit(HttpRequest request, RequestBatch batch) {
+		if (httpCache == null) {
+			return execute0(new ResponseFuture(request, null, config.getCallbackExecutor()), batch);
+		}
+		return executeCached(request, batch);
+	}
+
+	/**
+	 * @param batch 非空时请求加入批次, 由批次统一发送
+	 */
+	private IFuture executeCached(final HttpRequest request, RequestBatch batch) {
+		final long requestTime = System.currentTimeMillis();
+		final CacheEntry entry = httpCache.lookup(request);
+		final ResponseFuture future = new ResponseFuture(request, null, config.getCallbackExecutor());
+		if (entry != null && httpCache.isFresh(entry, request, requestTime)) {
+			future.complete(httpCache.toResponse(entry));
+			return future;
+		}
+		// 缓存未命中或已过期, 过期时以条件请求重新验证
+		HttpRequest networkRequest = entry == null ? request : httpCache.conditionalRequest(request, entry);
+		final ResponseFuture networkFuture = execute0(new ResponseFuture(networkRequest), batch);
+		networkFuture.addListener(new IFutureListener() {
+
+			@Override
+			public void operationCompleted(IFuture f) throws Exception {
+				if (f.isSuccessful()) {
+					future.complete(httpCache.onResponse(request, entry, (HttpResponse) f.getNow(), requestTime,
+							System.currentTimeMillis()));
+				} else if (f.isCancelled()) {
+					future.cancel(false);
+				} else {
+					future.setFailure(f.cause());
+				}
+			}
+		}, SynchronousExecutor.INSTANCE);
+		future.addListener(new IFutureListener() {
+
+			@Override
+			public void operationCompleted(IFuture f) throws Exception {
+				if (f.isCancelled()) { // 调用者取消时中止网络请求, 释放其占用的连接
+					networkFuture.cancel(false);
+				}
+			}
+		}, SynchronousExecutor.INSTANCE);
+		return future;
+	}
+
+	/**
+	 * <pre>
+	 * 异步发送HTTP请求, 并以流式方式接收响应体
+	 * 
+	 * 响应体不会在内存中聚合, 而是分块回调给handler, 适合下载大文件.
+	 * 返回的future会以已接收字节数报告进度(见{@link IProgressiveFutureListener}), 
+	 * 完成时的结果是不含响应体的{@link HttpResponse}.
+	 * 
+	 * HTTP/2协议下响应体由协议层聚合, 会作为一块数据回调.
+	 * </pre>
+	 */
+	public IProgressiveFuture execute(HttpRequest request, StreamingResponseHandler handler) {
+		Objects.requireNonNull(handler, "handler");
+		if (shards != null) {
+			return shardOf(request).execute(request, handler);
+		}
+		return execute0(new ResponseFuture(request, handler, config.getCallbackExecutor()), null);
+	}
+
+	private ResponseFuture execute0(final ResponseFuture future, RequestBatch batch) {
+		if (closed.get()) {
+			future.setFailure(new IOException("The async http client has been closed"));
+			return future;
+		}
+		try {
+			RequestEncoder.validate(future.getRequest()); // 请求行和请求头原样写出, 发送前校验
+		} catch (IllegalArgumentException e) {
+			future.setFailure(e);
+			return future;
+		}
 		future.addListener(new IFutureListener() {
 
 			@Override
 			public void operationCompleted(IFuture f) throws Exception {
 				sentFutures.remove(future);// 从sentFutures中移除
-				Channel channel = future.getChannel();
+				Channel channel = future.detachChannel();
 				if (channel != null) { // 归还连接
+					if (!f.isSuccessful() && future.isRequestSent()) {
+						// 请求已发出却未收到响应(超时或取消), 响应可能稍后到达, 连接不能再复用
+						channel.close();
+					}
 					channelPool.release(channel);
 				}
+				completeServer(future);
+				recordMetrics(future);
 			}
-		});
+		}, SynchronousExecutor.INSTANCE); // 归还连接等内部处理不经过回调线程池
 		sentFutures.add(future);
-
-		Channel channel = null;
 		try {
-			channel = getChannel(request);
-			future.setChannel(channel);
-		} catch (IOException e) {
-			future.setFailure(e);
+			future.scheduleTimeout(timer, config.getRequestTimeout());
+		} catch (IllegalStateException e) { // 并发关闭, 时间轮已停止
+			future.setFailure(new IOException("The async http client has been closed"));
 			return future;
 		}
 
-		channel.attr(ATTR_KEY_FUTURE).set(future); // 绑定future
-		channel.writeAndFlush(request).addListener(new ChannelFutureListener() {
+		if (batch != null) {
+			batch.add(future);
+		} else {
+			acquireAndSend(future);
+		}
+		return future;
+	}
+
+	private void acquireAndSend(final ResponseFuture future) {
+		if (http2ConnectionPool != null) {
+			http2ConnectionPool.acquire(future.getRequest().getUri())
+					.addListener(new GenericFutureListener<Future<Channel>>() {
+
+						@Override
+						public void operationComplete(Future<Channel> f) throws Exception {
+							if (!f.isSuccess()) {
+								future.setFailure(toIOException(f.cause()));
+								return;
+							}
+							// HTTP/2连接是多路复用的, 无需归还
+							writeRequest(future, f.getNow());
+						}
+					});
+			return;
+		}
+
+		acquireChannel(future.getRequest()).addListener(new GenericFutureListener<Future<Channel>>() {
+
+			@Override
+			public void operationComplete(Future<Channel> f) throws Exception {
+				if (!f.isSuccess()) {
+					future.setFailure(toIOException(f.cause()));
+					return;
+				}
+				sendRequest(future, f.getNow());
+			}
+		});
+	}
+
+	private void sendRequest(final ResponseFuture future, Channel channel) {
+		// 管线化模式下连接由ResponseHandler负责归还, 不与future绑定
+		if (!config.isPipelining()) {
+			future.setChannel(channel);
+		}
+		future.setServer(ChannelPool.serverOf(channel));
+		if (future.isDone()) { // 获取连接期间已超时或客户端已关闭
+			Channel ch = config.isPipelining() ? channel : future.detachChannel();
+			if (ch != null) {
+				channelPool.release(ch);
+			}
+			completeServer(future);
+			return;
+		}
+
+		writeRequest(future, channel);
+	}
+
+	private void writeRequest(ResponseFuture future, Channel channel) {
+		writeRequest(future, channel, true);
+	}
+
+	/**
+	 * @param flush 是否立即flush, 批量发送时由调用者在写完同一连接上的所有请求后统一flush
+	 */
+	private void writeRequest(final ResponseFuture future, Channel channel, boolean flush) {
+		future.setMetrics(ChannelMetrics.of(channel));
+		// 写出future本身, 由ResponseHandler在IO线程中入队, 保证入队顺序与请求发送顺序一致
+		(flush ? channel.writeAndFlush(future) : channel.write(future)).addListener(new ChannelFutureListener() {
 
 			@Override
 			public void operationComplete(ChannelFuture f) throws Exception {
@@ -154,24 +436,57 @@ public class AsyncHttpClient implements Closeable {
 					future.requestSent();
 				} else {
 					future.setFailure(f.cause());
-					f.channel().attr(ATTR_KEY_FUTURE).set(null);
 				}
 			}
 		});
-		return future;
 	}
 
-	private Channel getChannel(HttpRequest request) throws IOException {
+	/**
+	 * 通知连接池请求已在所分配的地址上完成, 用于负载均衡统计和摘除故障地址
+	 */
+	private void completeServer(ResponseFuture future) {
+		ChannelPool.Server server = future.detachServer();
+		if (server != null) {
+			channelPool.requestCompleted(server, !future.isSuccessful() && !future.isCancelled());
+		}
+	}
+
+	private static void recordMetrics(ResponseFuture future) {
+		ServerMetrics metrics = future.getMetrics();
+		if (metrics != null) {
+			long latency = System.nanoTime() - future.getStartNanos();
+			if (future.isSuccessful()) {
+				metrics.requestSucceeded(latency);
+			} else {
+				metrics.requestFailed(latency, future.isTimedOut());
+			}
+		}
+	}
+
+	private Future<Channel> acquireChannel(HttpRequest request) {
 		String host = request.getUri().getHost();
-		int port = request.getUri().getPort();
+		int port = request.getUri().getPort() > 0 ? request.getUri().getPort() : DEFAULT_PORT;
 		return channelPool.acquire(host, port);
 	}
 
+	private static IOException toIOException(Throwable e) {
+		return e instanceof IOException ? (IOException) e : new IOException(e);
+	}
+
 	@Override
 	public void close() {
 		if (!closed.compareAndSet(false, true)) {
 			return;
 		}
+		if (shards != null) {
+			for (AsyncHttpClient shard : shards) {
+				shard.close();
+			}
+			if (ownsEventLoopGroup) {
+				eventLoopGroup.shutdownGracefully();
+			}
+			return;
+		}
 
 		if (sentFutures.size() > 0) {
 			final Throwable e = new IOException("The async http client has been closed");
@@ -180,74 +495,426 @@ public class AsyncHttpClient implements Closeable {
 			}
 		}
 
+		timer.stop();
 		channelPool.close();
-		eventLoopGroup.shutdownGracefully();
+		if (http2ConnectionPool != null) {
+			http2ConnectionPool.close();
+		}
+		resolver.close();
+		if (ownsEventLoopGroup) {
+			eventLoopGroup.shutdownGracefully();
+		}
 	}
 
-	static final class ProtocolAdapter extends MessageToMessageCodec<FullHttpResponse, HttpRequest> {
+	/**
+	 * 一次{@link AsyncHttpClient#executeAll(Collection)}提交的请求, 按服务端分组发送
+	 */
+	private final class RequestBatch {
+
+		private final Map<String, Queue<ResponseFuture>> groups = new LinkedHashMap<>();
+
+		/** 分发期间同步获取到stream并已写入但尚未flush的HTTP/2连接, 只在分发线程中访问 */
+		private final Set<Channel> unflushed = new LinkedHashSet<>();
+
+		/** 正在分发的线程, 分发结束后为null */
+		private volatile Thread dispatcher;
+
+		void add(ResponseFuture future) {
+			URI uri = future.getRequest().getUri();
+			String key = uri.getScheme() + "://" + uri.getHost() + ":" + uri.getPort();
+			Queue<ResponseFuture> group = groups.get(key);
+			if (group == null) {
+				group = new ConcurrentLinkedQueue<>();
+				groups.put(key, group);
+			}
+			group.offer(future);
+		}
+
+		void dispatch() {
+			dispatcher = Thread.currentThread();
+			try {
+				for (Queue<ResponseFuture> group : groups.values()) {
+					if (http2ConnectionPool != null) {
+						dispatchHttp2(group);
+					} else if (config.isPipelining()) {
+						dispatchPipelined(group);
+					} else { // 每个连接只承载一个请求, 没有可合并的flush
+						ResponseFuture future;
+						while ((future = group.poll()) != null) {
+							acquireAndSend(future);
+						}
+					}
+				}
+			} finally {
+				dispatcher = null;
+			}
+			for (Channel channel : unflushed) {
+				channel.flush();
+			}
+		}
+
+		private void dispatchHttp2(Queue<ResponseFuture> group) {
+			ResponseFuture future;
+			while ((future = group.poll()) != null) {
+				final ResponseFuture f0 = future;
+				http2ConnectionPool.acquire(future.getRequest().getUri())
+						.addListener(new GenericFutureListener<Future<Channel>>() {
+
+							@Override
+							public void operationComplete(Future<Channel> f) throws Exception {
+								if (!f.isSuccess()) {
+									f0.setFailure(toIOException(f.cause()));
+									return;
+								}
+								Channel channel = f.getNow();
+								if (Thread.currentThread() == dispatcher) { // 有空闲stream时同步获取, 分发结束后统一flush
+									writeRequest(f0, channel, false);
+									unflushed.add(channel);
+								} else { // 排队等到的stream, 不再等待其它请求
+									writeRequest(f0, channel, true);
+								}
+							}
+						});
+			}
+		}
+
+		private void dispatchPipelined(Queue<ResponseFuture> group) {
+			int depth = config.getPipeliningDepth();
+			int connections = (group.size() + depth - 1) / depth;
+			for (int i = 0; i < connections; i++) {
+				acquirePipelined(group);
+			}
+		}
+
+		private void acquirePipelined(final Queue<ResponseFuture> group) {
+			ResponseFuture head = group.peek();
+			if (head == null) {
+				return;
+			}
+			acquireChannel(head.getRequest()).addListener(new GenericFutureListener<Future<Channel>>() {
+
+				@Override
+				public void operationComplete(Future<Channel> f) throws Exception {
+					if (!f.isSuccess()) { // 与逐个发送一致, 每次获取失败只影响一个请求
+						ResponseFuture future = group.poll();
+						if (future != null) {
+							future.setFailure(toIOException(f.cause()));
+							acquirePipelined(group);
+						}
+						return;
+					}
+					final Channel channel = f.getNow();
+					if (channel.eventLoop().inEventLoop()) {
+						writePipelined(group, channel);
+					} else {
+						channel.eventLoop().execute(new Runnable() {
+
+							@Override
+							public void run() {
+								writePipelined(group, channel);
+							}
+						});
+					}
+				}
+			});
+		}
+
+		/**
+		 * 在连接的IO线程中写入尽可能多的同组请求, 最后flush一次
+		 */
+		private void writePipelined(Queue<ResponseFuture> group, Channel channel) {
+			ResponseHandler handler = (ResponseHandler) channel.pipeline().get("RESPONSE_HANDLER");
+			ChannelPool.Server server = ChannelPool.serverOf(channel);
+			int capacity = handler.beginBatch();
+			int written = 0;
+			ResponseFuture future;
+			while (written < capacity && (future = group.poll()) != null) {
+				if (future.isDone()) { // 等待连接期间已超时或客户端已关闭
+					continue;
+				}
+				if (written > 0) { // 获取连接时已为第一个请求计数
+					channelPool.requestStarted(server);
+				}
+				future.setServer(server);
+				writeRequest(future, channel, false);
+				written++;
+			}
+			handler.endBatch(channel);
+			if (written > 0) {
+				channel.flush();
+			} else {
+				channelPool.release(channel);
+				channelPool.requestCompleted(server, false);
+			}
+			if (!group.isEmpty()) {
+				acquirePipelined(group);
+			}
+		}
+	}
+
+	/**
+	 * 请求与Netty请求对象之间的转换, 以及HTTP/2协议下Netty响应对象的转换.
+	 * HTTP/1.1的响应由{@link ResponseDecoder}直接解码
+	 */
+	static final class ProtocolAdapter extends MessageToMessageEncoder<HttpRequest> {
 
 		static final String USER_AGENT = "ATS Monitor Http Client";
 
+		/**
+		 * 只转换带流式请求体的请求, 其它请求由{@link RequestEncoder}直接编码
+		 */
+		@Override
+		public boolean acceptOutboundMessage(Object msg) throws Exception {
+			return msg instanceof HttpRequest && ((HttpRequest) msg).getRequestBody() != null;
+		}
+
 		@Override
 		protected void encode(ChannelHandlerContext ctx, HttpRequest request, List<Object> out) throws Exception {
+			if (request.getRequestBody() == null) {
+				out.add(toNettyRequest(request));
+			} else {
+				out.add(toNettyRequestHead(request));
+				RequestBodies.encode(request.getRequestBody(), RequestBodies.isZeroCopyCapable(ctx), out);
+			}
+		}
+
+		static FullHttpRequest toNettyRequest(HttpRequest request) {
 			final DefaultFullHttpRequest nettyRequest;
 			if (request.getBody() == null) {
 				nettyRequest = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, toNettyHttpMethod(request.getMethod()),
-						request.getUri().getPath());
+						RequestEncoder.requestTarget(request.getUri()));
 			} else {
 				nettyRequest = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, toNettyHttpMethod(request.getMethod()),
-						request.getUri().getPath(), Unpooled.wrappedBuffer(request.getBody()));
+						RequestEncoder.requestTarget(request.getUri()), Unpooled.wrappedBuffer(request.getBody()));
 			}
 
-			// copy headers
-			for (Map.Entry<String, List<String>> entry : request.getHeaders().entrySet()) {
-				nettyRequest.headers().add(entry.getKey(), entry.getValue());
-			}
-			// 填充必要的头
-			nettyRequest.headers().set(HttpHeaderNames.CONNECTION, HttpHeaderValues.KEEP_ALIVE);
+			copyHeaders(request, nettyRequest.headers());
 			if (request.getMethod() != HttpMethod.GET && request.getBody() != null) {
 				nettyRequest.headers().set(HttpHeaderNames.CONTENT_LENGTH, request.getBody().length);
 			}
-			if (!nettyRequest.headers().contains(HttpHeaderNames.HOST)) {
-				String host = request.getUri().getHost() + ":" + request.getUri().getPort();
-				nettyRequest.headers().add(HttpHeaderNames.HOST, host);
+			return nettyRequest;
+		}
+
+		/**
+		 * 带流式请求体的请求头, 请求体长度未知时以chunked方式传输
+		 */
+		static io.netty.handler.codec.http.HttpRequest toNettyRequestHead(HttpRequest request) {
+			DefaultHttpRequest nettyRequest = new DefaultHttpRequest(HttpVersion.HTTP_1_1,
+					toNettyHttpMethod(request.getMethod()), RequestEncoder.requestTarget(request.getUri()));
+			copyHeaders(request, nettyRequest.headers());
+			long contentLength = request.getRequestBody().contentLength();
+			if (contentLength >= 0) {
+				nettyRequest.headers().set(HttpHeaderNames.CONTENT_LENGTH, contentLength);
+			} else {
+				nettyRequest.headers().remove(HttpHeaderNames.CONTENT_LENGTH);
+				nettyRequest.headers().set(HttpHeaderNames.TRANSFER_ENCODING, HttpHeaderValues.CHUNKED);
 			}
-			nettyRequest.headers().set(HttpHeaderNames.USER_AGENT, USER_AGENT);
-			out.add(nettyRequest);
+			return nettyRequest;
 		}
 
-		@Override
-		protected void decode(ChannelHandlerContext ctx, FullHttpResponse nettyResponse, List<Object> out)
-				throws Exception {
-			HttpResponseBuilder builder = HttpResponse.builder();
-			// copy status
-			HttpStatus status = new HttpStatus(nettyResponse.status().code(), nettyResponse.status().reasonPhrase());
-			builder.status(status);
-			// copy body
-			ByteBuffer data = ByteBuffer.allocate(nettyResponse.content().readableBytes());
-			nettyResponse.content().readBytes(data);
-			builder.body(data.array());
-			for (Entry<String, String> entry : nettyResponse.headers().entries()) {
-				builder.addHeader(entry.getKey(), entry.getValue());
+		private static void copyHeaders(HttpRequest request, io.netty.handler.codec.http.HttpHeaders nettyHeaders) {
+			// copy headers
+			HttpHeaders headers = request.getHeaders();
+			for (int i = 0; i < headers.size(); i++) {
+				nettyHeaders.add(headers.name(i), headers.value(i));
+			}
+			// 填充必要的头
+			nettyHeaders.set(HttpHeaderNames.CONNECTION, HttpHeaderValues.KEEP_ALIVE);
+			if (!nettyHeaders.contains(HttpHeaderNames.HOST)) {
+				URI uri = request.getUri();
+				nettyHeaders.add(HttpHeaderNames.HOST, uri.getPort() > 0 ? uri.getHost() + ":" + uri.getPort() : uri.getHost());
 			}
-			out.add(builder.build());
+			nettyHeaders.set(HttpHeaderNames.USER_AGENT, USER_AGENT);
+		}
+
+		/**
+		 * @param pooledBody 为true时返回{@link PooledHttpResponse}, 其持有nettyResponse响应体的一个引用
+		 */
+		static HttpResponse toHttpResponse(FullHttpResponse nettyResponse, boolean pooledBody) {
+			if (pooledBody) {
+				return new PooledHttpResponse(toHttpStatus(nettyResponse.status()),
+						toHttpHeaders(nettyResponse.headers()), nettyResponse.content().retain());
+			}
+			// copy body
+			byte[] body = new byte[nettyResponse.content().readableBytes()];
+			nettyResponse.content().readBytes(body);
+			return new HttpResponse(toHttpStatus(nettyResponse.status()), body, toHttpHeaders(nettyResponse.headers()));
 		}
 
-		private io.netty.handler.codec.http.HttpMethod toNettyHttpMethod(HttpMethod method) {
+		static HttpStatus toHttpStatus(HttpResponseStatus nettyStatus) {
+			return HttpStatus.valueOf(nettyStatus.code(), nettyStatus.reasonPhrase());
+		}
+
+		/**
+		 * 响应头的惰性视图, 调用者访问时才复制, Netty的响应头在解码后不会再被修改
+		 */
+		static HttpHeaders toHttpHeaders(io.netty.handler.codec.http.HttpHeaders nettyHeaders) {
+			return HttpHeaders.lazy(nettyHeaders);
+		}
+
+		private static io.netty.handler.codec.http.HttpMethod toNettyHttpMethod(HttpMethod method) {
 			return io.netty.handler.codec.http.HttpMethod.valueOf(method.name());
 		}
 	}
 
-	static final class ResponseHandler extends SimpleChannelInboundHandler<HttpResponse> {
+	/**
+	 * <pre>
+	 * 按发送顺序将响应与请求的future匹配
+	 * 
+	 * 每个连接维护一个未响应请求的FIFO队列, 队列只在IO线程中访问.
+	 * 管线化模式下, 队列未满时连接会被立即归还连接池供其它请求复用, 队列满时则等到收到响应后再归还.
+	 * </pre>
+	 */
+	final class ResponseHandler extends ChannelDuplexHandler {
+
+		private final ArrayDeque<ResponseFuture> inflightFutures = new ArrayDeque<>();
+
+		/** 连接是否在连接池中(管线化模式) */
+		private boolean pooled = true;
+
+		/** 是否正在批量写入, 批量写入期间不归还连接 */
+		private boolean batching;
+
+		/** 正在流式接收响应的future, 已中止或没有流式响应时为null */
+		private ResponseFuture streamingFuture;
+
+		/**
+		 * 下一个响应是否以流式方式接收
+		 */
+		boolean isNextStreaming() {
+			ResponseFuture future = inflightFutures.peek();
+			return future != null && future.isStreaming();
+		}
+
+		/**
+		 * 下一个响应是否是HEAD请求的响应, 其响应体总是为空
+		 */
+		boolean isNextHead() {
+			ResponseFuture future = inflightFutures.peek();
+			return future != null && future.getRequest().getMethod() == HttpMethod.HEAD;
+		}
+
 		@Override
-		protected void channelRead0(ChannelHandlerContext ctx, HttpResponse response) throws Exception {
-			ResponseFuture future = ctx.channel().attr(ATTR_KEY_FUTURE).getAndSet(null);
+		public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+			if (!(msg instanceof ResponseFuture)) {
+				ctx.write(msg, promise);
+				return;
+			}
+
+			final ResponseFuture future = (ResponseFuture) msg;
+			inflightFutures.offer(future);
+			pooled = false;
+			ctx.write(future.getRequest(), promise).addListener(new ChannelFutureListener() {
+
+				@Override
+				public void operationComplete(ChannelFuture f) throws Exception {
+					if (f.isSuccess()) {
+						return;
+					}
+					if (config.isPipelining()) {
+						// 后续请求可能已写出, 无法再保证响应顺序, 关闭连接
+						f.channel().close();
+					} else {
+						inflightFutures.remove(future);
+					}
+				}
+			});
+			releaseIfPossible(ctx.channel());
+		}
+
+		@Override
+		public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+			if (!(msg instanceof HttpResponse)) {
+				ctx.fireChannelRead(msg);
+				return;
+			}
+
+			HttpResponse response = (HttpResponse) msg;
+			ResponseFuture future = inflightFutures.poll();
 			if (future == null || future.isDone()) {
 				logger.warn("Recieved a response {}, but no correlated request future found or the future is done.",
 						response);
+				ResponseFuture.discard(response);
+			} else {
+				future.complete(response);
+			}
+			releaseIfPossible(ctx.channel());
+		}
+
+		/**
+		 * 流式响应的头, 由{@link ResponseDecoder}在IO线程中直接调用
+		 */
+		void streamHeaders(ChannelHandlerContext ctx, HttpStatus status, HttpHeaders headers, long contentLength) {
+			streamingFuture = inflightFutures.peek();
+			if (streamingFuture == null) {
+				logger.warn("Recieved a response {}, but no correlated request future found.", status);
+				ctx.close();
 				return;
 			}
-			future.setSuccess(response);
+			if (streamingFuture.isDone() || !streamingFuture.streamHeaders(status, headers, contentLength)) {
+				abortStreaming(ctx);
+			}
+		}
+
+		/**
+		 * 流式响应的一块数据, content只在调用期间有效
+		 */
+		void streamContent(ChannelHandlerContext ctx, ByteBuf content) {
+			if (streamingFuture == null) { // 已中止的响应的剩余数据
+				return;
+			}
+			if (content.isReadable() && !streamingFuture.streamChunk(content.nioBuffer())) {
+				abortStreaming(ctx);
+			}
+		}
+
+		/**
+		 * 流式响应结束
+		 */
+		void streamEnd(ChannelHandlerContext ctx) {
+			if (streamingFuture == null) {
+				return;
+			}
+			inflightFutures.poll();
+			streamingFuture.streamComplete(false);
+			streamingFuture = null;
+			releaseIfPossible(ctx.channel());
+		}
+
+		private void abortStreaming(ChannelHandlerContext ctx) {
+			// HTTP/1.1无法跳过剩余的响应体, 只能关闭连接
+			inflightFutures.remove(streamingFuture);
+			streamingFuture.streamComplete(true);
+			streamingFuture = null;
+			ctx.close();
+		}
+
+		/**
+		 * 开始批量写入, 只在IO线程中调用
+		 * 
+		 * @return 还可以写入的请求数
+		 */
+		int beginBatch() {
+			batching = true;
+			return Math.max(config.getPipeliningDepth() - inflightFutures.size(), 0);
+		}
+
+		/**
+		 * 结束批量写入, 有写入请求时按需归还连接
+		 */
+		void endBatch(Channel channel) {
+			batching = false;
+			releaseIfPossible(channel);
+		}
+
+		private void releaseIfPossible(Channel channel) {
+			if (!config.isPipelining() || pooled || batching) {
+				return;
+			}
+			if (inflightFutures.size() < config.getPipeliningDepth() || !channel.isActive()) {
+				pooled = true;
+				channelPool.release(channel);
+			}
 		}
 
 		@Override
@@ -256,6 +923,36 @@ public class AsyncHttpClient implements Closeable {
 			String host = addr.getAddress().getHostAddress();
 			int port = addr.getPort();
 			logger.info("disconnected with {}:{}, channelId = {}", host, port, ctx.channel().id());
+
+			IOException cause = null;
+			ResponseFuture future;
+			while ((future = inflightFutures.poll()) != null) {
+				if (future.isDone()) {
+					continue;
+				}
+				if (isRetryable(future)) {
+					ChannelPool.Server server = future.detachServer();
+					if (server != null) { // 连接断开, 计为该地址的一次失败
+						channelPool.requestCompleted(server, true);
+					}
+					future.prepareRetry();
+					acquireAndSend(future);
+				} else {
+					if (cause == null) {
+						cause = new IOException("Connection closed before response received");
+					}
+					future.setFailure(cause);
+				}
+			}
+			releaseIfPossible(ctx.channel());
+			ctx.fireChannelInactive();
+		}
+
+		private boolean isRetryable(ResponseFuture future) {
+			HttpRequest request = future.getRequest();
+			return config.isPipelining() && !closed.get() && request.getMethod().isIdempotent()
+					&& (request.getRequestBody() == null || request.getRequestBody().isRepeatable())
+					&& future.getRetries() < MAX_PIPELINING_RETRIES;
 		}
 
 		@Override
@@ -264,10 +961,22 @@ public class AsyncHttpClient implements Closeable {
 			String host = addr.getAddress().getHostAddress();
 			int port = addr.getPort();
 			logger.info("connected to {}:{}, channelId = {}", host, port, ctx.channel().id());
+			ctx.fireChannelActive();
 		}
 
 		@Override
 		public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
+			if (cause instanceof DecoderException) {
+				// 解码器已关闭连接, 正在接收的响应以解码失败的原因(如响应体过大)失败, 其余请求在连接断开时处理
+				ResponseFuture future = inflightFutures.poll();
+				if (future != null && !future.isDone()) {
+					if (future == streamingFuture) {
+						streamingFuture = null;
+					}
+					future.setFailure(cause.getCause() != null ? cause.getCause() : cause);
+					return;
+				}
+			}
 			logger.error("Unexpected exception caught: {}", cause.getMessage(), cause);
 		}
 	}
@@ -6,6 +6,12 @@
  */
 package http.client;
 
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import io.netty.channel.EventLoopGroup;
+
 /**
  *
  *
@@ -28,6 +34,110 @@ public class AsyncHttpClientConfig {
     /** {@link AsyncHttpClient}会根据IP和Port缓存连接, 该参数指定一个IP+Port对应的最大连接数*/
     private int maxConnectionsEachServer;
 
+    /** HTTP/1.1管线化深度, 即一个连接上最多同时发送的未响应请求数, 大于1时开启管线化 */
+    private int pipeliningDepth = 1;
+
+    /** 通信协议 */
+    private HttpProtocol protocol = HttpProtocol.HTTP_1_1;
+
+    /** HTTP/2协议下每个服务端建立的连接数 */
+    private int http2ConnectionsEachServer = 1;
+
+    /** HTTP/2协议下每个stream的初始流控窗口大小 */
+    private int http2InitialWindowSize = 1 << 20;
+
+    /** 是否以池化缓冲区承载响应体(见{@link PooledHttpResponse}), 开启后响应使用完毕必须关闭 */
+    private boolean pooledResponseBody;
+
+    /** 聚合的响应体(解压后)的最大长度(字节), 超过时请求以{@link io.netty.handler.codec.TooLongFrameException}失败 */
+    private int maxContentLength = Integer.MAX_VALUE;
+
+    /** IO传输层实现 */
+    private TransportType transport = TransportType.AUTO;
+
+    /** 是否开启TCP_QUICKACK, 仅epoll传输层有效 */
+    private boolean tcpQuickAck;
+
+    /** SO_BUSY_POLL的忙等时间(微秒), 0表示不开启, 仅epoll传输层有效 */
+    private int busyPollMicros;
+
+    /** 是否使用边缘触发模式, 否则使用水平触发模式, 仅epoll传输层有效 */
+    private boolean epollEdgeTriggered = true;
+
+    /** DNS服务器地址, 为空时使用系统配置(/etc/resolv.conf) */
+    private List<InetSocketAddress> dnsServers;
+
+    /** DNS查询超时时间(毫秒) */
+    private int dnsQueryTimeout = 5000;
+
+    /** DNS解析结果的最小缓存时间(秒), 记录的TTL小于该值时以该值为准 */
+    private int dnsMinTtl = 0;
+
+    /** DNS解析结果的最大缓存时间(秒), 记录的TTL大于该值时以该值为准 */
+    private int dnsMaxTtl = Integer.MAX_VALUE;
+
+    /** DNS解析失败结果的缓存时间(秒), 0表示不缓存 */
+    private int dnsNegativeTtl = 5;
+
+    /** 请求超时时间轮的刻度(毫秒), 决定超时检测的精度 */
+    private int timeoutTickDuration = 10;
+
+    /** 请求超时时间轮的槽数 */
+    private int timeoutTicksPerWheel = 512;
+
+    /** 主机名解析出多个地址时的负载均衡策略 */
+    private LoadBalancer loadBalancer = LoadBalancers.roundRobin();
+
+    /** 地址连续失败多少次后被暂时摘除, 0表示不摘除 */
+    private int ejectionThreshold = 5;
+
+    /** 地址被摘除的时长(ms) */
+    private int ejectionDuration = 30000;
+
+    /** 响应缓存, 为null时不缓存 */
+    private ResponseCache responseCache;
+
+    /** 是否开启内容编码: 发送Accept-Encoding并解压gzip/deflate响应, 压缩较大的请求体 */
+    private boolean compressionEnabled = false;
+
+    /** 请求体压缩阈值(字节), 不小于该长度的请求体以gzip压缩, 小于0表示不压缩请求体 */
+    private int requestCompressionThreshold = 1024;
+
+    /** 指标采集, 为null时不采集 */
+    private MetricsCollector metricsCollector;
+
+    /** flush合并: 最多合并多少次flush后真正flush一次, 0表示不合并. 适合管线化和HTTP/2等一个连接上有多个请求的场景 */
+    private int flushConsolidationLimit = 0;
+
+    /**
+     * 读事件之外的flush是否也合并. 开启后同一轮事件循环中的多次flush合并为一次, 吞吐更高但会增加少许延迟;
+     * 关闭时只合并读事件中(如响应回调中发出新请求)的flush, 延迟优先
+     */
+    private boolean flushConsolidationWhenNoRead = false;
+
+    /**
+     * 执行请求future监听器的默认线程池, 为null时在IO线程中执行. 线程池由调用者管理, 关闭客户端时不会关闭.
+     * JDK 21及以上可使用{@link http.util.VirtualThreads#newExecutor()}, 每个回调在一个虚拟线程中执行
+     */
+    private Executor callbackExecutor;
+
+    /**
+     * 外部提供的IO线程池, 为null时由客户端创建(线程数见ioThreads). 外部线程池由调用者管理, 关闭客户端时不会关闭,
+     * 传输层由线程池的类型决定(只支持epoll和nio), transport配置不再生效
+     */
+    private EventLoopGroup eventLoopGroup;
+
+    /**
+     * <pre>
+     * 是否开启分片模式(thread-per-core): 每个IO线程一个分片, 各分片有独立的连接池, 超时检测, 在途请求登记和指标,
+     * 分片之间不共享任何状态.
+     * 在IO线程中发出的请求由该线程所在的分片处理, 获取连接, 发送和完成都不离开调用线程;
+     * 其他线程发出的请求按主机名哈希到分片, 同一主机的请求总是在同一分片中.
+     * 适合本身运行在Netty IO线程上的服务(配合{@link #setEventLoopGroup(EventLoopGroup)}使用)
+     * </pre>
+     */
+    private boolean shardPerEventLoop;
+
     public int getConnectTimeout() {
         return connectTimeout;
     }
@@ -59,4 +169,240 @@ public class AsyncHttpClientConfig {
     public void setMaxConnectionsEachServer(int maxConnectionsEachServer) {
         this.maxConnectionsEachServer = maxConnectionsEachServer;
     }
+
+    public int getTimeoutTickDuration() {
+        return timeoutTickDuration;
+    }
+
+    public void setTimeoutTickDuration(int timeoutTickDuration) {
+        this.timeoutTickDuration = timeoutTickDuration;
+    }
+
+    public int getTimeoutTicksPerWheel() {
+        return timeoutTicksPerWheel;
+    }
+
+    public void setTimeoutTicksPerWheel(int timeoutTicksPerWheel) {
+        this.timeoutTicksPerWheel = timeoutTicksPerWheel;
+    }
+
+    public int getPipeliningDepth() {
+        return pipeliningDepth;
+    }
+
+    public void setPipeliningDepth(int pipeliningDepth) {
+        this.pipeliningDepth = pipeliningDepth;
+    }
+
+    public boolean isPipelining() {
+        return pipeliningDepth > 1;
+    }
+
+    public HttpProtocol getProtocol() {
+        return protocol;
+    }
+
+    public void setProtocol(HttpProtocol protocol) {
+        this.protocol = protocol;
+    }
+
+    public int getHttp2ConnectionsEachServer() {
+        return http2ConnectionsEachServer;
+    }
+
+    public void setHttp2ConnectionsEachServer(int http2ConnectionsEachServer) {
+        this.http2ConnectionsEachServer = http2ConnectionsEachServer;
+    }
+
+    public int getHttp2InitialWindowSize() {
+        return http2InitialWindowSize;
+    }
+
+    public void setHttp2InitialWindowSize(int http2InitialWindowSize) {
+        this.http2InitialWindowSize = http2InitialWindowSize;
+    }
+
+    public boolean isPooledResponseBody() {
+        return pooledResponseBody;
+    }
+
+    public void setPooledResponseBody(boolean pooledResponseBody) {
+        this.pooledResponseBody = pooledResponseBody;
+    }
+
+    public int getMaxContentLength() {
+        return maxContentLength;
+    }
+
+    public void setMaxContentLength(int maxContentLength) {
+        this.maxContentLength = maxContentLength;
+    }
+
+    public TransportType getTransport() {
+        return transport;
+    }
+
+    public void setTransport(TransportType transport) {
+        this.transport = transport;
+    }
+
+    public boolean isTcpQuickAck() {
+        return tcpQuickAck;
+    }
+
+    public void setTcpQuickAck(boolean tcpQuickAck) {
+        this.tcpQuickAck = tcpQuickAck;
+    }
+
+    public int getBusyPollMicros() {
+        return busyPollMicros;
+    }
+
+    public void setBusyPollMicros(int busyPollMicros) {
+        this.busyPollMicros = busyPollMicros;
+    }
+
+    public boolean isEpollEdgeTriggered() {
+        return epollEdgeTriggered;
+    }
+
+    public void setEpollEdgeTriggered(boolean epollEdgeTriggered) {
+        this.epollEdgeTriggered = epollEdgeTriggered;
+    }
+
+    public List<InetSocketAddress> getDnsServers() {
+        return dnsServers;
+    }
+
+    public void setDnsServers(List<InetSocketAddress> dnsServers) {
+        this.dnsServers = dnsServers;
+    }
+
+    public int getDnsQueryTimeout() {
+        return dnsQueryTimeout;
+    }
+
+    public void setDnsQueryTimeout(int dnsQueryTimeout) {
+        this.dnsQueryTimeout = dnsQueryTimeout;
+    }
+
+    public int getDnsMinTtl() {
+        return dnsMinTtl;
+    }
+
+    public void setDnsMinTtl(int dnsMinTtl) {
+        this.dnsMinTtl = dnsMinTtl;
+    }
+
+    public int getDnsMaxTtl() {
+        return dnsMaxTtl;
+    }
+
+    public void setDnsMaxTtl(int dnsMaxTtl) {
+        this.dnsMaxTtl = dnsMaxTtl;
+    }
+
+    public int getDnsNegativeTtl() {
+        return dnsNegativeTtl;
+    }
+
+    public void setDnsNegativeTtl(int dnsNegativeTtl) {
+        this.dnsNegativeTtl = dnsNegativeTtl;
+    }
+
+    public LoadBalancer getLoadBalancer() {
+        return loadBalancer;
+    }
+
+    public void setLoadBalancer(LoadBalancer loadBalancer) {
+        this.loadBalancer = loadBalancer;
+    }
+
+    public int getEjectionThreshold() {
+        return ejectionThreshold;
+    }
+
+    public void setEjectionThreshold(int ejectionThreshold) {
+        this.ejectionThreshold = ejectionThreshold;
+    }
+
+    public int getEjectionDuration() {
+        return ejectionDuration;
+    }
+
+    public void setEjectionDuration(int ejectionDuration) {
+        this.ejectionDuration = ejectionDuration;
+    }
+
+    public ResponseCache getResponseCache() {
+        return responseCache;
+    }
+
+    public void setResponseCache(ResponseCache responseCache) {
+        this.responseCache = responseCache;
+    }
+
+    public boolean isCompressionEnabled() {
+        return compressionEnabled;
+    }
+
+    public void setCompressionEnabled(boolean compressionEnabled) {
+        this.compressionEnabled = compressionEnabled;
+    }
+
+    public int getRequestCompressionThreshold() {
+        return requestCompressionThreshold;
+    }
+
+    public void setRequestCompressionThreshold(int requestCompressionThreshold) {
+        this.requestCompressionThreshold = requestCompressionThreshold;
+    }
+
+    public MetricsCollector getMetricsCollector() {
+        return metricsCollector;
+    }
+
+    public void setMetricsCollector(MetricsCollector metricsCollector) {
+        this.metricsCollector = metricsCollector;
+    }
+
+    public int getFlushConsolidationLimit() {
+        return flushConsolidationLimit;
+    }
+
+    public void setFlushConsolidationLimit(int flushConsolidationLimit) {
+        this.flushConsolidationLimit = flushConsolidationLimit;
+    }
+
+    public boolean isFlushConsolidationWhenNoRead() {
+        return flushConsolidationWhenNoRead;
+    }
+
+    public void setFlushConsolidationWhenNoRead(boolean flushConsolidationWhenNoRead) {
+        this.flushConsolidationWhenNoRead = flushConsolidationWhenNoRead;
+    }
+
+    public Executor getCallbackExecutor() {
+        return callbackExecutor;
+    }
+
+    public void setCallbackExecutor(Executor callbackExecutor) {
+        this.callbackExecutor = callbackExecutor;
+    }
+
+    public EventLoopGroup getEventLoopGroup() {
+        return eventLoopGroup;
+    }
+
+    public void setEventLoopGroup(EventLoopGroup eventLoopGroup) {
+        this.eventLoopGroup = eventLoopGroup;
+    }
+
+    public boolean isShardPerEventLoop() {
+        return shardPerEventLoop;
+    }
+
+    public void setShardPerEventLoop(boolean shardPerEventLoop) {
+        this.shardPerEventLoop = shardPerEventLoop;
+    }
 }
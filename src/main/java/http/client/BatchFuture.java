@@ -0,0 +1,101 @@
+package http.client;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import http.util.future.DefaultPromise;
+import http.util.future.IFuture;
+import http.util.future.IFutureListener;
+import http.util.future.SynchronousExecutor;
+
+/**
+ * <pre>
+ * 批量请求的聚合future, 见{@link AsyncHttpClient#executeAll(java.util.Collection)}
+ *
+ * 所有请求都完成(成功, 失败或取消)后才完成, 且总是成功完成, 结果为各请求的future列表.
+ * 各请求的结果需通过{@link #get(int)}或{@link #futures()}逐一获取.
+ * </pre>
+ *
+ * @author lixiaohui
+ */
+public final class BatchFuture extends DefaultPromise {
+
+    private static final long serialVersionUID = -2714377026366521743L;
+
+    private final List<IFuture> futures;
+    private final AtomicInteger remaining;
+
+    /**
+     * @param executor 执行监听器的默认线程池, 为null时在完成future的线程中执行
+     */
+    BatchFuture(List<? extends IFuture> futures, Executor executor) {
+        super(executor);
+        this.futures = Collections.unmodifiableList(futures);
+        this.remaining = new AtomicInteger(futures.size());
+        if (futures.isEmpty()) {
+            super.setSuccess(this.futures);
+            return;
+        }
+        IFutureListener listener = new IFutureListener() {
+
+            @Override
+            public void operationCompleted(IFuture f) throws Exception {
+                if (remaining.decrementAndGet() == 0) {
+                    BatchFuture.super.setSuccess(BatchFuture.this.futures);
+                }
+            }
+        };
+        for (IFuture future : futures) {
+            future.addListener(listener, SynchronousExecutor.INSTANCE);
+        }
+    }
+
+    /**
+     * 各请求的future, 顺序与提交的请求一致
+     */
+    public List<IFuture> futures() {
+        return futures;
+    }
+
+    /**
+     * 第index个请求的future
+     */
+    public IFuture get(int index) {
+        return futures.get(index);
+    }
+
+    public int size() {
+        return futures.size();
+    }
+
+    /**
+     * 尚未完成的请求数
+     */
+    public int remaining() {
+        return remaining.get();
+    }
+
+    /**
+     * 取消所有尚未完成的请求
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        boolean cancelled = false;
+        for (IFuture future : futures) {
+            cancelled |= future.cancel(mayInterruptIfRunning);
+        }
+        return cancelled;
+    }
+
+    @Override
+    public BatchFuture setSuccess(Object result) {
+        throw new UnsupportedOperationException("BatchFuture completes when all the requests are done");
+    }
+
+    @Override
+    public BatchFuture setFailure(Throwable cause) {
+        throw new UnsupportedOperationException("BatchFuture completes when all the requests are done");
+    }
+}
@@ -0,0 +1,142 @@
+package http.client;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import http.HttpHeaders;
+import http.HttpResponse;
+import http.HttpStatus;
+import io.netty.buffer.Unpooled;
+
+/**
+ * 一条缓存的HTTP响应, 不可变
+ *
+ * @author lixiaohui
+ */
+public final class CacheEntry {
+
+    /** 估算权重时每个缓存项的固定开销 */
+    private static final int ENTRY_OVERHEAD = 128;
+
+    private final HttpStatus status;
+    private final HttpHeaders headers;
+    private final ByteBuffer body; // 堆内存或内存映射的文件区域, 可能为null
+    private final Map<String, String> varyHeaders; // Vary中列出的请求头(小写) -> 原请求中的值
+    private final long requestTime; // 发出请求的时间(ms)
+    private final long responseTime; // 收到响应的时间(ms)
+    private final int weight;
+
+    public CacheEntry(HttpStatus status, HttpHeaders headers, byte[] body, Map<String, String> varyHeaders,
+            long requestTime, long responseTime) {
+        this(status, headers, body == null ? null : ByteBuffer.wrap(body), varyHeaders, requestTime, responseTime);
+    }
+
+    /**
+     * @param headers 响应头, 会被拷贝, 之后对其的修改不影响缓存项
+     * @param body 响应体, 不会被拷贝, 调用者不能再修改其内容
+     */
+    public CacheEntry(HttpStatus status, HttpHeaders headers, ByteBuffer body, Map<String, String> varyHeaders,
+            long requestTime, long responseTime) {
+        this(status, new HttpHeaders(headers), body, varyHeaders, requestTime, responseTime, true);
+    }
+
+    /**
+     * @param headers 响应头, 由缓存项独占, 不拷贝
+     */
+    private CacheEntry(HttpStatus status, HttpHeaders headers, ByteBuffer body, Map<String, String> varyHeaders,
+            long requestTime, long responseTime, boolean owned) {
+        this.status = status;
+        this.headers = headers;
+        this.body = body == null ? null : body.slice().asReadOnlyBuffer();
+        this.varyHeaders = varyHeaders == null ? Collections.<String, String>emptyMap() : varyHeaders;
+        this.requestTime = requestTime;
+        this.responseTime = responseTime;
+        this.weight = computeWeight();
+    }
+
+    public HttpStatus getStatus() {
+        return status;
+    }
+
+    /**
+     * 缓存项的响应头, 被并发的缓存命中共享, 不能修改
+     */
+    public HttpHeaders getHeaders() {
+        return headers;
+    }
+
+    /**
+     * 响应体的堆内存拷贝
+     */
+    public byte[] getBody() {
+        if (body == null) {
+            return null;
+        }
+        byte[] bytes = new byte[body.remaining()];
+        body.duplicate().get(bytes);
+        return bytes;
+    }
+
+    /**
+     * 响应体的只读视图, 不拷贝数据
+     */
+    public ByteBuffer getBodyBuffer() {
+        return body == null ? null : body.duplicate();
+    }
+
+    public Map<String, String> getVaryHeaders() {
+        return varyHeaders;
+    }
+
+    public long getRequestTime() {
+        return requestTime;
+    }
+
+    public long getResponseTime() {
+        return responseTime;
+    }
+
+    /**
+     * 估算占用的堆内存字节数, 堆外(如内存映射)的响应体不计入
+     */
+    public int weight() {
+        return weight;
+    }
+
+    private int computeWeight() {
+        int weight = ENTRY_OVERHEAD + (body == null || body.isDirect() ? 0 : body.remaining());
+        for (Entry<String, List<String>> entry : headers) {
+            weight += entry.getKey().length() * 2;
+            for (String value : entry.getValue()) {
+                weight += value.length() * 2;
+            }
+        }
+        return weight;
+    }
+
+    /**
+     * 以新的响应头和时间构造缓存项, 响应体共享, 用于重新验证后刷新
+     *
+     * @param headers 新的响应头, 由缓存项独占, 调用者不能再修改
+     */
+    CacheEntry refresh(HttpHeaders headers, long requestTime, long responseTime) {
+        return new CacheEntry(status, headers, body, varyHeaders, requestTime, responseTime, true);
+    }
+
+    /**
+     * 以缓存内容构造响应, 响应头是副本
+     * 
+     * @param pooledBody 是否以{@link PooledHttpResponse}直接引用缓存的响应体, 否则拷贝到堆内存
+     */
+    HttpResponse toResponse(boolean pooledBody) {
+        HttpHeaders copy = new HttpHeaders(headers);
+        if (pooledBody) {
+            return new PooledHttpResponse(status, copy,
+                    body == null ? Unpooled.EMPTY_BUFFER : Unpooled.wrappedBuffer(body.duplicate()));
+        }
+        return new HttpResponse(status, getBody(), copy);
+    }
+}
@@ -0,0 +1,157 @@
+package http.client;
+
+import http.client.MetricsCollector.ServerMetrics;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufHolder;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandler.Sharable;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.FileRegion;
+import io.netty.util.AttributeKey;
+
+/**
+ * <pre>
+ * 连接上的指标记录
+ * 
+ * 连接创建时绑定所属服务端的{@link ServerMetrics}, 并在pipeline最前端统计读写的字节数
+ * </pre>
+ *
+ * @author lixiaohui
+ */
+@Sharable
+final class ChannelMetrics extends ChannelDuplexHandler {
+
+    static final ServerMetrics NOOP = new NoopServerMetrics();
+
+    private static final AttributeKey<ServerMetrics> ATTR_KEY_METRICS = AttributeKey.newInstance("HTTP_SERVER_METRICS");
+
+    private static final ChannelMetrics INSTANCE = new ChannelMetrics();
+
+    private ChannelMetrics() {
+    }
+
+    static ServerMetrics newServerMetrics(MetricsCollector collector, String server) {
+        return collector == null ? NOOP : collector.newServerMetrics(server);
+    }
+
+    /**
+     * 分片模式下第shard个分片的指标采集, 服务端标识加上"#分片序号"后缀, 各分片的指标相互独立
+     */
+    static MetricsCollector forShard(final MetricsCollector collector, final int shard) {
+        if (collector == null) {
+            return null;
+        }
+        return new MetricsCollector() {
+
+            @Override
+            public ServerMetrics newServerMetrics(String server) {
+                return collector.newServerMetrics(server + "#" + shard);
+            }
+        };
+    }
+
+    /**
+     * 将指标绑定到新建的连接上, 统计字节数和连接的打开与关闭
+     */
+    static void bind(Channel channel, final ServerMetrics metrics) {
+        if (metrics == NOOP) {
+            return;
+        }
+        channel.attr(ATTR_KEY_METRICS).set(metrics);
+        channel.pipeline().addFirst("CHANNEL_METRICS", INSTANCE);
+        metrics.connectionOpened();
+        channel.closeFuture().addListener(new ChannelFutureListener() {
+
+            @Override
+            public void operationComplete(ChannelFuture future) throws Exception {
+                metrics.connectionClosed();
+            }
+        });
+    }
+
+    /**
+     * 连接所属服务端的指标, 未绑定时返回{@link #NOOP}
+     */
+    static ServerMetrics of(Channel channel) {
+        ServerMetrics metrics = channel.attr(ATTR_KEY_METRICS).get();
+        return metrics == null ? NOOP : metrics;
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        long bytes = sizeOf(msg);
+        if (bytes > 0) {
+            of(ctx.channel()).bytesRead(bytes);
+        }
+        ctx.fireChannelRead(msg);
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        long bytes = sizeOf(msg);
+        if (bytes > 0) {
+            of(ctx.channel()).bytesWritten(bytes);
+        }
+        ctx.write(msg, promise);
+    }
+
+    private static long sizeOf(Object msg) {
+        if (msg instanceof ByteBuf) {
+            return ((ByteBuf) msg).readableBytes();
+        }
+        if (msg instanceof ByteBufHolder) {
+            return ((ByteBufHolder) msg).content().readableBytes();
+        }
+        if (msg instanceof FileRegion) {
+            return ((FileRegion) msg).count();
+        }
+        return 0;
+    }
+
+    private static final class NoopServerMetrics implements ServerMetrics {
+
+        @Override
+        public void requestSucceeded(long latencyNanos) {
+        }
+
+        @Override
+        public void requestFailed(long latencyNanos, boolean timeout) {
+        }
+
+        @Override
+        public void acquireStarted() {
+        }
+
+        @Override
+        public void acquireCompleted(boolean success) {
+        }
+
+        @Override
+        public void connectionOpened() {
+        }
+
+        @Override
+        public void connectionClosed() {
+        }
+
+        @Override
+        public void connectionAcquired() {
+        }
+
+        @Override
+        public void connectionReleased() {
+        }
+
+        @Override
+        public void bytesRead(long bytes) {
+        }
+
+        @Override
+        public void bytesWritten(long bytes) {
+        }
+    }
+}
@@ -1,18 +1,27 @@
 package http.client;
 
-import java.io.IOException;
+import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import http.client.MetricsCollector.ServerMetrics;
 import io.netty.bootstrap.Bootstrap;
 import io.netty.bootstrap.BootstrapConfig;
 import io.netty.channel.Channel;
 import io.netty.channel.pool.ChannelPoolHandler;
 import io.netty.channel.pool.FixedChannelPool;
+import io.netty.util.AttributeKey;
 import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.GenericFutureListener;
+import io.netty.util.concurrent.ImmediateEventExecutor;
+import io.netty.util.concurrent.Promise;
 
 /**
  * 连接池
@@ -27,45 +36,149 @@ public class ChannelPool {
 	private static final Logger logger = LoggerFactory.getLogger(ChannelPool.class);
 
 	/** key(IP+Port) -> ChannelPool */
-	private final ConcurrentHashMap<Server, FixedChannelPool> server2Pools = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<Server, ServerPool> server2Pools = new ConcurrentHashMap<>();
+
+	/** 连接所属的服务端, 在连接创建时绑定, 归还时据此找到连接池 */
+	private static final AttributeKey<Server> ATTR_KEY_SERVER = AttributeKey.newInstance("HTTP_POOL_SERVER");
 
 	private final Bootstrap bootstrap;
 
+	private final HostResolver resolver;
+
 	private final int maxConnectionsEachServer;
 
-	public ChannelPool(Bootstrap bootstrap, int maxConnectionsEachServer) {
+	private final LoadBalancer loadBalancer;
+
+	/** 连续失败多少次后摘除地址, 0表示不摘除 */
+	private final int ejectionThreshold;
+
+	/** 地址被摘除的时长(纳秒) */
+	private final long ejectionNanos;
+
+	private final MetricsCollector metricsCollector;
+
+	public ChannelPool(Bootstrap bootstrap, HostResolver resolver, AsyncHttpClientConfig config) {
+		this(bootstrap, resolver, config, config.getMetricsCollector());
+	}
+
+	/**
+	 * @param metricsCollector 指标采集, 为null时不采集
+	 */
+	ChannelPool(Bootstrap bootstrap, HostResolver resolver, AsyncHttpClientConfig config,
+			MetricsCollector metricsCollector) {
 		this.bootstrap = bootstrap;
-		this.maxConnectionsEachServer = maxConnectionsEachServer;
+		this.resolver = resolver;
+		this.maxConnectionsEachServer = config.getMaxConnectionsEachServer();
+		this.loadBalancer = config.getLoadBalancer();
+		this.ejectionThreshold = config.getEjectionThreshold();
+		this.ejectionNanos = TimeUnit.MILLISECONDS.toNanos(config.getEjectionDuration());
+		this.metricsCollector = metricsCollector;
 	}
 
 	/**
-	 * 获取指定ip和端口的连接
+	 * <pre>
+	 * 异步获取指定主机和端口的连接
+	 * 
+	 * 该方法不会阻塞调用线程, 主机名通过{@link HostResolver}异步解析, 
+	 * 解析出多个地址时由{@link LoadBalancer}选择其中一个, 每个地址(IP和端口)有独立的连接池, 
+	 * 连接池已满或连接尚在建立时, 返回的future会在连接可用时完成.
 	 * 
-	 * @param ip   ip地址
+	 * 获取成功后, 调用方需在请求完成时调用{@link #requestCompleted(Server, boolean)}
+	 * </pre>
+	 * 
+	 * @param host 主机名或ip地址
 	 * @param port 端口
 	 */
-	public Channel acquire(String ip, int port) throws IOException {
-		final Server server = Server.of(ip, port);
-		FixedChannelPool pool = server2Pools.get(server);
-		if (pool == null) {
+	public Future<Channel> acquire(String host, final int port) {
+		final Promise<Channel> promise = ImmediateEventExecutor.INSTANCE.newPromise();
+		resolver.resolveAll(host).addListener(new GenericFutureListener<Future<List<InetAddress>>>() {
+
+			@Override
+			public void operationComplete(Future<List<InetAddress>> f) throws Exception {
+				if (!f.isSuccess()) {
+					promise.setFailure(f.cause());
+					return;
+				}
+				try {
+					acquire(select(f.getNow(), port), promise);
+				} catch (Throwable e) {
+					promise.tryFailure(e);
+				}
+			}
+		});
+		return promise;
+	}
+
+	/**
+	 * 获取指定地址(已解析)的连接, 不经过负载均衡
+	 */
+	public Future<Channel> acquire(InetSocketAddress address) {
+		final Promise<Channel> promise = ImmediateEventExecutor.INSTANCE.newPromise();
+		acquire(serverPool(address), promise);
+		return promise;
+	}
+
+	private void acquire(final ServerPool serverPool, final Promise<Channel> promise) {
+		serverPool.outstanding.incrementAndGet();
+		serverPool.metrics.acquireStarted();
+		serverPool.pool.acquire().addListener(new GenericFutureListener<Future<Channel>>() {
+
+			@Override
+			public void operationComplete(Future<Channel> f) throws Exception {
+				serverPool.metrics.acquireCompleted(f.isSuccess());
+				if (f.isSuccess()) {
+					// 新建的连接不会回调ChannelPoolHandler.channelAcquired, 因此在这里统计借出
+					serverPool.metrics.connectionAcquired();
+					if (!promise.trySuccess(f.getNow())) {
+						serverPool.metrics.connectionReleased();
+						serverPool.pool.release(f.getNow());
+						serverPool.completed(false);
+					}
+				} else {
+					serverPool.completed(true);
+					promise.tryFailure(f.cause());
+				}
+			}
+		});
+	}
+
+	/**
+	 * 从解析出的地址中选出一个, 被摘除的地址不参与选择, 除非所有地址都被摘除了
+	 */
+	private ServerPool select(List<InetAddress> addresses, int port) {
+		if (addresses.size() == 1) {
+			return serverPool(new InetSocketAddress(addresses.get(0), port));
+		}
+		final long now = System.nanoTime();
+		List<ServerPool> all = new ArrayList<>(addresses.size());
+		List<ServerPool> available = new ArrayList<>(addresses.size());
+		for (InetAddress address : addresses) {
+			ServerPool serverPool = serverPool(new InetSocketAddress(address, port));
+			all.add(serverPool);
+			if (!serverPool.isEjected(now)) {
+				available.add(serverPool);
+			}
+		}
+		return LoadBalancers.select(loadBalancer, available.isEmpty() ? all : available);
+	}
+
+	private ServerPool serverPool(InetSocketAddress address) {
+		final Server server = Server.of(address);
+		ServerPool serverPool = server2Pools.get(server);
+		if (serverPool == null) {
 			Bootstrap b = this.bootstrap.clone();
-			b.remoteAddress(ip, port);
-			FixedChannelPool newPool = new FixedChannelPool(b, LOGGING_CHANNEL_POOL_HANDLER, maxConnectionsEachServer);
-			FixedChannelPool oldPool = server2Pools.putIfAbsent(server, newPool);
-			pool = oldPool == null ? newPool : oldPool;
-		}
-		Future<Channel> future = pool.acquire();
-		future.awaitUninterruptibly();
-		if (future.isSuccess()) {
-			return future.getNow();
-		} else {
-			Throwable e = future.cause();
-			if (e instanceof IOException) {
-				throw (IOException) e;
-			} else {
-				throw new IOException(e);
+			b.remoteAddress(address);
+			ServerMetrics metrics = ChannelMetrics.newServerMetrics(metricsCollector,
+					server.ip + ":" + server.port);
+			ServerPool newPool = new ServerPool(address, metrics,
+					new FixedChannelPool(b, new PoolHandler(server, metrics), maxConnectionsEachServer));
+			ServerPool oldPool = server2Pools.putIfAbsent(server, newPool);
+			if (oldPool != null) {
+				newPool.pool.close();
 			}
+			serverPool = oldPool == null ? newPool : oldPool;
 		}
+		return serverPool;
 	}
 
 	/**
@@ -78,21 +191,106 @@ public class ChannelPool {
 	 * @param channel 要归还的连接
 	 */
 	public void release(Channel channel) {
-		final Server server = Server.of(channel);
-		FixedChannelPool pool = server2Pools.get(server);
-		if (pool == null) {
+		final Server server = serverOf(channel);
+		ServerPool serverPool = server == null ? null : server2Pools.get(server);
+		if (serverPool == null) {
 			throw new RuntimeException("Channel " + channel + " is not belong to this pool");
 		}
-		pool.release(channel); // 归还是异步的
+		serverPool.metrics.connectionReleased();
+		serverPool.pool.release(channel); // 归还是异步的
+	}
+
+	/**
+	 * 在已获取的连接上追加发送请求时调用(管线化批量发送), 与{@link #requestCompleted(Server, boolean)}成对
+	 */
+	void requestStarted(Server server) {
+		ServerPool serverPool = server2Pools.get(server);
+		if (serverPool != null) {
+			serverPool.outstanding.incrementAndGet();
+		}
+	}
+
+	/**
+	 * 通过{@link #acquire(String, int)}获取的连接上的请求完成时调用, 用于统计未完成请求数和摘除连续失败的地址
+	 * 
+	 * @param server 连接所属的服务端, 见{@link #serverOf(Channel)}
+	 * @param failed 请求是否失败
+	 */
+	void requestCompleted(Server server, boolean failed) {
+		ServerPool serverPool = server2Pools.get(server);
+		if (serverPool != null) {
+			serverPool.completed(failed);
+		}
+	}
+
+	/**
+	 * 连接所属的服务端
+	 */
+	static Server serverOf(Channel channel) {
+		return channel.attr(ATTR_KEY_SERVER).get();
 	}
 
 	public void close() {
-		for (FixedChannelPool pool : server2Pools.values()) {
-			pool.close();
+		for (ServerPool serverPool : server2Pools.values()) {
+			serverPool.pool.close();
 		}
 		server2Pools.clear();
 	}
 
+	/**
+	 * 单个地址的连接池及其统计信息
+	 */
+	private final class ServerPool implements LoadBalancer.Endpoint {
+
+		final InetSocketAddress address;
+		final ServerMetrics metrics;
+		final FixedChannelPool pool;
+
+		/** 已分配但尚未完成的请求数 */
+		final AtomicInteger outstanding = new AtomicInteger();
+
+		/** 连续失败次数 */
+		final AtomicInteger consecutiveFailures = new AtomicInteger();
+
+		/** 摘除截止时间(System.nanoTime()), 0表示未被摘除 */
+		volatile long ejectedUntil;
+
+		ServerPool(InetSocketAddress address, ServerMetrics metrics, FixedChannelPool pool) {
+			this.address = address;
+			this.metrics = metrics;
+			this.pool = pool;
+		}
+
+		@Override
+		public InetSocketAddress address() {
+			return address;
+		}
+
+		@Override
+		public int outstandingRequests() {
+			return outstanding.get();
+		}
+
+		boolean isEjected(long now) {
+			long until = ejectedUntil;
+			return until != 0 && now - until < 0;
+		}
+
+		void completed(boolean failed) {
+			outstanding.decrementAndGet();
+			if (!failed) {
+				consecutiveFailures.set(0);
+				ejectedUntil = 0;
+			} else if (ejectionThreshold > 0 && consecutiveFailures.incrementAndGet() >= ejectionThreshold) {
+				consecutiveFailures.set(0);
+				long until = System.nanoTime() + ejectionNanos;
+				ejectedUntil = until == 0 ? 1 : until;
+				logger.warn("Server {} ejected for {}ms after {} consecutive failures", address,
+						TimeUnit.NANOSECONDS.toMillis(ejectionNanos), ejectionThreshold);
+			}
+		}
+	}
+
 	/**
 	 * 以ip和端口来区别Channel
 	 */
@@ -102,9 +300,8 @@ public class ChannelPool {
 			return new Server(ip, port);
 		}
 
-		static Server of(Channel channel) {
-			InetSocketAddress addr = (InetSocketAddress) channel.remoteAddress();
-			return new Server(addr.getAddress().getHostAddress(), addr.getPort());
+		static Server of(InetSocketAddress address) {
+			return new Server(address.getAddress().getHostAddress(), address.getPort());
 		}
 
 		final String ip; // 这是IP地址, 不是域名或主机名
@@ -144,7 +341,15 @@ public class ChannelPool {
 		}
 	}
 
-	private final ChannelPoolHandler LOGGING_CHANNEL_POOL_HANDLER = new ChannelPoolHandler() {
+	private final class PoolHandler implements ChannelPoolHandler {
+
+		private final Server server;
+		private final ServerMetrics metrics;
+
+		PoolHandler(Server server, ServerMetrics metrics) {
+			this.server = server;
+			this.metrics = metrics;
+		}
 
 		@Override
 		public void channelAcquired(Channel ch) throws Exception {
@@ -158,9 +363,11 @@ public class ChannelPool {
 
 		@Override
 		public void channelCreated(Channel ch) throws Exception {
+			ch.attr(ATTR_KEY_SERVER).set(server);
 			// 由于Netty的SimpleChannelPool会重新设置bootstrap.handler(), 因此我们需要给channel初始化pipeline
 			BootstrapConfig config = bootstrap.config();
 			config.handler().handlerAdded(ch.pipeline().firstContext());
+			ChannelMetrics.bind(ch, metrics); // 须在初始化pipeline之后添加
 		}
-	};
+	}
 }
@@ -0,0 +1,581 @@
+package http.client;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import http.HttpHeaders;
+import http.HttpStatus;
+import http.util.NamedThreadFactory;
+
+/**
+ * <pre>
+ * 基于内存映射文件的持久化响应缓存, 进程重启后仍然有效
+ *
+ * 缓存项追加写入定长的段文件(segment-xxxxxxxx.dat), 每个段文件整体映射到内存.
+ * 索引(缓存键 -> 记录位置)只在内存中, 创建后在后台扫描段文件重建, 校验失败(如写入时进程崩溃)的记录及其后的数据被忽略,
+ * 重建完成前的读取都视为未命中.
+ * 读取时响应体直接引用映射区域, 不拷贝到堆内存(见{@link CacheEntry#getBodyBuffer()}).
+ *
+ * 段文件总数超过上限时, 最旧的段被压缩: 其中仍有效的记录被复制到当前段, 当前段放不下的记录被淘汰, 然后删除该段.
+ *
+ * 写入, 段切换和压缩都在每个实例专有的写线程中按调用顺序进行, {@link #put(String, CacheEntry)}和
+ * {@link #remove(String)}只登记后立即返回, 不会在调用线程(通常是IO线程)中进行文件IO.
+ * 同一个键尚未写入的多次put只写入最后一次. remove立即生效, 删除标记随后写入.
+ *
+ * 一个目录同时只能被一个实例使用.
+ * </pre>
+ *
+ * @author lixiaohui
+ */
+public class DiskResponseCache implements ResponseCache, Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(DiskResponseCache.class);
+
+    /** 默认段文件大小 */
+    public static final int DEFAULT_SEGMENT_SIZE = 64 << 20;
+
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".dat";
+
+    private static final byte TYPE_PUT = 1;
+    private static final byte TYPE_REMOVE = 2;
+
+    /** 记录头: 长度(int) + CRC32(int) */
+    private static final int RECORD_HEADER_SIZE = 8;
+
+    private final Path directory;
+    private final int segmentSize;
+    private final int maxSegments;
+
+    private final ConcurrentHashMap<String, Location> index = new ConcurrentHashMap<>();
+
+    /** 尚未写入的缓存项, 每个键在写线程中最多有一个待执行的写入任务 */
+    private final ConcurrentHashMap<String, CacheEntry> pendingPuts = new ConcurrentHashMap<>();
+
+    /** 段文件, 从旧到新, 最后一个是当前写入的段. 段文件只在写线程中访问(读取映射区域除外) */
+    private final ArrayDeque<Segment> segments = new ArrayDeque<>();
+
+    /** 写线程, 加载, 写入, 段切换和压缩都在其中进行 */
+    private final ExecutorService writer;
+
+    private volatile boolean loaded;
+    private volatile boolean closed;
+
+    /**
+     * @param directory 缓存目录, 不存在时创建
+     * @param maxBytes 段文件总大小上限
+     */
+    public DiskResponseCache(Path directory, long maxBytes) {
+        this(directory, maxBytes, (int) Math.min(DEFAULT_SEGMENT_SIZE, Math.max(1 << 20, maxBytes / 4)));
+    }
+
+    public DiskResponseCache(Path directory, long maxBytes, int segmentSize) {
+        if (segmentSize <= RECORD_HEADER_SIZE) {
+            throw new IllegalArgumentException("segmentSize too small: " + segmentSize);
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxSegments = (int) Math.max(2, maxBytes / segmentSize);
+        this.writer = Executors.newSingleThreadExecutor(new NamedThreadFactory("Http-DiskCache-Writer", true));
+        this.writer.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    load();
+                } catch (IOException e) {
+                    logger.warn("Failed to load disk cache from {}, caching disabled", directory, e);
+                    closed = true;
+                    return;
+                }
+                loaded = true;
+            }
+        });
+    }
+
+    @Override
+    public CacheEntry get(String key) {
+        if (!loaded || closed) { // 索引重建完成前视为未命中
+            return null;
+        }
+        Location location = index.get(key);
+        if (location == null) {
+            return null;
+        }
+        try {
+            return decodeEntry(location.segment.slice(location.offset, location.length));
+        } catch (RuntimeException e) {
+            logger.warn("Corrupted cache record of {} in {}", key, location.segment.file, e);
+            index.remove(key, location);
+            return null;
+        }
+    }
+
+    @Override
+    public void put(final String key, CacheEntry entry) {
+        if (closed || pendingPuts.put(key, entry) != null) { // 已有待执行的写入任务, 由其写入最新的缓存项
+            return;
+        }
+        submit(new Runnable() {
+
+            @Override
+            public void run() {
+                CacheEntry latest = pendingPuts.remove(key);
+                if (latest != null) { // 为null时已被remove取消
+                    write(key, latest);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void remove(final String key) {
+        if (closed) {
+            return;
+        }
+        pendingPuts.remove(key);
+        final Location removed = index.remove(key);
+        submit(new Runnable() {
+
+            @Override
+            public void run() {
+                Location old = index.remove(key); // 加载完成前登记的删除
+                if (removed != null) {
+                    removed.segment.liveRecords--;
+                }
+                if (old != null) {
+                    old.segment.liveRecords--;
+                }
+                if (removed != null || old != null) {
+                    append(encodeRemove(key)); // 写入删除标记, 避免重启后被重新加载
+                }
+            }
+        });
+    }
+
+    /**
+     * 等待已登记的写入完成并将已映射的段文件刷盘, 关闭后缓存不再可用
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        submit(new Runnable() {
+
+            @Override
+            public void run() {
+                for (Segment segment : segments) {
+                    segment.force();
+                }
+            }
+        });
+        closed = true;
+        writer.shutdown();
+        boolean interrupted = false;
+        for (;;) {
+            try {
+                if (writer.awaitTermination(1, TimeUnit.SECONDS)) {
+                    break;
+                }
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        pendingPuts.clear();
+        index.clear();
+    }
+
+    private void submit(Runnable task) {
+        try {
+            writer.execute(task);
+        } catch (RejectedExecutionException e) { // 已关闭
+        }
+    }
+
+    /**
+     * 在写线程中写入一个缓存项
+     */
+    private void write(String key, CacheEntry entry) {
+        if (!loaded) {
+            return;
+        }
+        byte[] record = encodePut(key, entry);
+        if (record.length > segmentSize) {
+            return;
+        }
+        Location location = append(record);
+        if (location != null) {
+            location.segment.liveRecords++;
+            Location old = index.put(key, location);
+            if (old != null) {
+                old.segment.liveRecords--;
+            }
+        }
+    }
+
+    /**
+     * 扫描段文件重建索引
+     */
+    private void load() throws IOException {
+        long start = System.currentTimeMillis();
+        Files.createDirectories(directory);
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path file : stream) {
+                files.add(file);
+            }
+        }
+        Collections.sort(files);
+        for (Path file : files) {
+            long id;
+            try {
+                String name = file.getFileName().toString();
+                id = Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            Segment segment = new Segment(id, file, Math.max(segmentSize, (int) Math.min(Files.size(file), Integer.MAX_VALUE)));
+            segments.addLast(segment);
+            scan(segment);
+        }
+        logger.info("Disk cache loaded from {}, segments = {}, entries = {}, cost {}ms", directory, segments.size(),
+                index.size(), System.currentTimeMillis() - start);
+    }
+
+    private void scan(Segment segment) {
+        ByteBuffer buf = segment.buffer.duplicate();
+        int offset = 0;
+        while (offset + RECORD_HEADER_SIZE <= buf.capacity()) {
+            int length = buf.getInt(offset);
+            if (length <= 0 || offset + RECORD_HEADER_SIZE + length > buf.capacity()) {
+                break; // 未写入的区域
+            }
+            ByteBuffer payload = segment.slice(offset + RECORD_HEADER_SIZE, length);
+            if (crc(payload.duplicate()) != buf.getInt(offset + 4)) {
+                logger.warn("Corrupted cache record at {} of {}, ignore the rest", offset, segment.file);
+                break;
+            }
+            Location location = new Location(segment, offset + RECORD_HEADER_SIZE, length);
+            byte type = payload.get();
+            String key = readString(payload);
+            Location old = type == TYPE_PUT ? index.put(key, location) : index.remove(key);
+            if (old != null) {
+                old.segment.liveRecords--;
+            }
+            if (type == TYPE_PUT) {
+                segment.liveRecords++;
+            }
+            offset += RECORD_HEADER_SIZE + length;
+        }
+        segment.writePosition = offset;
+    }
+
+    /**
+     * 追加一条记录, 当前段写满时切换到新段, 必要时压缩最旧的段
+     *
+     * @return 记录的位置, 无法写入时返回null
+     */
+    private Location append(byte[] record) {
+        Segment segment = segments.peekLast();
+        if (segment == null || !segment.hasRoom(record.length)) {
+            try {
+                segment = roll(record.length);
+            } catch (IOException e) {
+                logger.warn("Failed to create cache segment in {}", directory, e);
+                return null;
+            }
+        }
+        return segment.write(record);
+    }
+
+    private Segment roll(int reserved) throws IOException {
+        // 写满的段不主动刷盘, 由操作系统回写
+        Segment last = segments.peekLast();
+        long id = last == null ? 0 : last.id + 1;
+        Segment segment = new Segment(id, directory.resolve(String.format("%s%08d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX)),
+                segmentSize);
+        segments.addLast(segment);
+        while (segments.size() > maxSegments) {
+            compact(segments.pollFirst(), segment, reserved);
+        }
+        return segment;
+    }
+
+    /**
+     * 将最旧段中仍有效的记录复制到当前段, 放不下的淘汰, 然后删除最旧段
+     *
+     * @param reserved 当前段中需要为待写入记录保留的空间
+     */
+    private void compact(Segment oldest, Segment target, int reserved) {
+        int copied = 0;
+        int evicted = 0;
+        if (oldest.liveRecords > 0) {
+            for (Entry<String, Location> entry : index.entrySet()) {
+                Location location = entry.getValue();
+                if (location.segment != oldest) {
+                    continue;
+                }
+                ByteBuffer payload = oldest.slice(location.offset, location.length);
+                // 调用线程可能同时删除该键, 只替换仍指向原位置的索引项
+                if (target.hasRoom(RECORD_HEADER_SIZE + location.length + reserved)) {
+                    Location moved = target.write(payload, oldest.buffer.getInt(location.offset - 4));
+                    if (index.replace(entry.getKey(), location, moved)) {
+                        target.liveRecords++;
+                        copied++;
+                    }
+                } else if (index.remove(entry.getKey(), location)) {
+                    evicted++;
+                }
+            }
+        }
+        try {
+            Files.deleteIfExists(oldest.file); // 已映射的区域在被回收前仍然有效
+        } catch (IOException e) {
+            logger.warn("Failed to delete cache segment {}", oldest.file, e);
+        }
+        logger.debug("Compacted cache segment {}, copied = {}, evicted = {}", oldest.file, copied, evicted);
+    }
+
+    private static byte[] encodePut(String key, CacheEntry entry) {
+        ByteBuffer body = entry.getBodyBuffer();
+        List<byte[]> strings = new ArrayList<>();
+        int size = 1 + sizeOf(key, strings) + 8 + 8 + 4 + sizeOf(entry.getStatus().getReasonPhrase(), strings) + 4;
+        for (Entry<String, List<String>> header : entry.getHeaders()) {
+            size += sizeOf(header.getKey(), strings) + 4;
+            for (String value : header.getValue()) {
+                size += sizeOf(value, strings);
+            }
+        }
+        size += 4;
+        for (Entry<String, String> vary : entry.getVaryHeaders().entrySet()) {
+            size += sizeOf(vary.getKey(), strings) + sizeOf(vary.getValue(), strings);
+        }
+        size += 4 + (body == null ? 0 : body.remaining());
+
+        ByteBuffer buf = ByteBuffer.allocate(RECORD_HEADER_SIZE + size);
+        buf.position(RECORD_HEADER_SIZE);
+        Iterator<byte[]> it = strings.iterator();
+        buf.put(TYPE_PUT);
+        writeString(buf, it.next());
+        buf.putLong(entry.getRequestTime());
+        buf.putLong(entry.getResponseTime());
+        buf.putInt(entry.getStatus().getCode());
+        writeString(buf, it.next());
+        int headerCountPosition = buf.position();
+        buf.putInt(0);
+        int headerCount = 0;
+        for (Entry<String, List<String>> header : entry.getHeaders()) {
+            writeString(buf, it.next());
+            buf.putInt(header.getValue().size());
+            for (int i = 0; i < header.getValue().size(); i++) {
+                writeString(buf, it.next());
+            }
+            headerCount++;
+        }
+        buf.putInt(headerCountPosition, headerCount);
+        buf.putInt(entry.getVaryHeaders().size());
+        for (int i = 0; i < entry.getVaryHeaders().size(); i++) {
+            writeString(buf, it.next());
+            writeString(buf, it.next());
+        }
+        if (body == null) {
+            buf.putInt(-1);
+        } else {
+            buf.putInt(body.remaining());
+            buf.put(body);
+        }
+        return seal(buf);
+    }
+
+    private static byte[] encodeRemove(String key) {
+        byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buf = ByteBuffer.allocate(RECORD_HEADER_SIZE + 1 + 4 + bytes.length);
+        buf.position(RECORD_HEADER_SIZE);
+        buf.put(TYPE_REMOVE);
+        writeString(buf, bytes);
+        return seal(buf);
+    }
+
+    /**
+     * 填写记录头
+     */
+    private static byte[] seal(ByteBuffer buf) {
+        int length = buf.position() - RECORD_HEADER_SIZE;
+        buf.putInt(0, length);
+        buf.putInt(4, crc(ByteBuffer.wrap(buf.array(), RECORD_HEADER_SIZE, length)));
+        return buf.array();
+    }
+
+    /**
+     * 从记录(不含记录头)解码缓存项, 响应体引用映射区域
+     */
+    private static CacheEntry decodeEntry(ByteBuffer payload) {
+        if (payload.get() != TYPE_PUT) {
+            throw new IllegalStateException("Not a put record");
+        }
+        readString(payload); // key
+        long requestTime = payload.getLong();
+        long responseTime = payload.getLong();
+        HttpStatus status = new HttpStatus(payload.getInt(), readString(payload));
+        HttpHeaders headers = new HttpHeaders();
+        for (int i = payload.getInt(); i > 0; i--) {
+            String name = readString(payload);
+            for (int j = payload.getInt(); j > 0; j--) {
+                headers.add(name, readString(payload));
+            }
+        }
+        int varyCount = payload.getInt();
+        Map<String, String> varyHeaders = varyCount == 0 ? null : new HashMap<String, String>();
+        for (int i = 0; i < varyCount; i++) {
+            varyHeaders.put(readString(payload), readString(payload));
+        }
+        int bodyLength = payload.getInt();
+        ByteBuffer body = null;
+        if (bodyLength >= 0) {
+            body = payload.slice();
+            body.limit(bodyLength);
+        }
+        return new CacheEntry(status, headers, body, varyHeaders, requestTime, responseTime);
+    }
+
+    private static int sizeOf(String s, List<byte[]> strings) {
+        byte[] bytes = s == null ? null : s.getBytes(StandardCharsets.UTF_8);
+        strings.add(bytes);
+        return 4 + (bytes == null ? 0 : bytes.length);
+    }
+
+    /**
+     * 字符串以长度(int, null为-1) + UTF-8编码存储
+     */
+    private static void writeString(ByteBuffer buf, byte[] bytes) {
+        if (bytes == null) {
+            buf.putInt(-1);
+        } else {
+            buf.putInt(bytes.length);
+            buf.put(bytes);
+        }
+    }
+
+    private static String readString(ByteBuffer buf) {
+        int length = buf.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buf.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int crc(ByteBuffer buf) {
+        CRC32 crc = new CRC32();
+        crc.update(buf);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * 记录在段文件中的位置, offset和length不含记录头
+     */
+    private static final class Location {
+
+        final Segment segment;
+        final int offset;
+        final int length;
+
+        Location(Segment segment, int offset, int length) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    /**
+     * 段文件, 创建时即按固定大小整体映射(稀疏文件, 未写入部分不占磁盘空间)
+     */
+    private static final class Segment {
+
+        final long id;
+        final Path file;
+        final MappedByteBuffer buffer; // 只做绝对位置读写, 不修改position, 可被多个线程共享
+        int writePosition;
+        int liveRecords; // 仍被索引引用的记录数
+
+        Segment(long id, Path file, int size) throws IOException {
+            this.id = id;
+            this.file = file;
+            try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+                if (raf.length() < size) {
+                    raf.setLength(size);
+                }
+                this.buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            }
+        }
+
+        boolean hasRoom(int recordLength) {
+            return writePosition + recordLength <= buffer.capacity();
+        }
+
+        Location write(byte[] record) {
+            ByteBuffer dst = buffer.duplicate();
+            dst.position(writePosition);
+            dst.put(record);
+            Location location = new Location(this, writePosition + RECORD_HEADER_SIZE, record.length - RECORD_HEADER_SIZE);
+            writePosition += record.length;
+            return location;
+        }
+
+        /**
+         * 复制其它段中的记录
+         */
+        Location write(ByteBuffer payload, int crc) {
+            ByteBuffer dst = buffer.duplicate();
+            dst.position(writePosition);
+            dst.putInt(payload.remaining());
+            dst.putInt(crc);
+            int length = payload.remaining();
+            dst.put(payload);
+            Location location = new Location(this, writePosition + RECORD_HEADER_SIZE, length);
+            writePosition += RECORD_HEADER_SIZE + length;
+            return location;
+        }
+
+        ByteBuffer slice(int offset, int length) {
+            ByteBuffer buf = buffer.duplicate();
+            buf.position(offset);
+            buf.limit(offset + length);
+            return buf.slice();
+        }
+
+        void force() {
+            buffer.force();
+        }
+    }
+}
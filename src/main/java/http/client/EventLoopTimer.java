@@ -0,0 +1,93 @@
+package http.client;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import io.netty.channel.EventLoop;
+import io.netty.util.Timeout;
+import io.netty.util.Timer;
+import io.netty.util.TimerTask;
+import io.netty.util.concurrent.ScheduledFuture;
+
+/**
+ * <pre>
+ * 以IO线程的定时任务实现的{@link Timer}, 分片模式下每个分片的请求超时检测
+ *
+ * 超时任务登记和取消都在分片的IO线程中完成时不涉及跨线程操作, 也不需要单独的时间轮线程.
+ * 超时任务随IO线程一起关闭, {@link #stop()}不会取消尚未到期的任务.
+ * </pre>
+ *
+ * @author lixiaohui
+ */
+final class EventLoopTimer implements Timer {
+
+    private final EventLoop eventLoop;
+
+    EventLoopTimer(EventLoop eventLoop) {
+        this.eventLoop = eventLoop;
+    }
+
+    @Override
+    public Timeout newTimeout(TimerTask task, long delay, TimeUnit unit) {
+        ScheduledTimeout timeout = new ScheduledTimeout(this, task);
+        try {
+            timeout.future = eventLoop.schedule(timeout, delay, unit);
+        } catch (RejectedExecutionException e) { // 与HashedWheelTimer一致, 停止后登记抛出IllegalStateException
+            throw new IllegalStateException("The event loop has been shut down", e);
+        }
+        return timeout;
+    }
+
+    @Override
+    public Set<Timeout> stop() {
+        return Collections.emptySet();
+    }
+
+    private static final class ScheduledTimeout implements Timeout, Runnable {
+
+        private final Timer timer;
+        private final TimerTask task;
+        private volatile ScheduledFuture<?> future;
+
+        ScheduledTimeout(Timer timer, TimerTask task) {
+            this.timer = timer;
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            try {
+                task.run(this);
+            } catch (Exception e) {
+                throw new IllegalStateException("Timer task " + task + " failed", e);
+            }
+        }
+
+        @Override
+        public Timer timer() {
+            return timer;
+        }
+
+        @Override
+        public TimerTask task() {
+            return task;
+        }
+
+        @Override
+        public boolean isExpired() {
+            return future.isDone() && !future.isCancelled();
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return future.isCancelled();
+        }
+
+        @Override
+        public boolean cancel() {
+            return future.cancel(false);
+        }
+    }
+}
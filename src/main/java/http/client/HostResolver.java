@@ -0,0 +1,62 @@
+package http.client;
+
+import java.net.InetAddress;
+import java.util.List;
+
+import io.netty.channel.EventLoop;
+import io.netty.channel.epoll.EpollDatagramChannel;
+import io.netty.channel.socket.nio.NioDatagramChannel;
+import io.netty.resolver.dns.DefaultDnsCache;
+import io.netty.resolver.dns.DnsNameResolver;
+import io.netty.resolver.dns.DnsNameResolverBuilder;
+import io.netty.resolver.dns.DnsServerAddressStreamProviders;
+import io.netty.resolver.dns.SequentialDnsServerAddressStreamProvider;
+import io.netty.util.concurrent.Future;
+
+/**
+ * <pre>
+ * 异步域名解析器
+ * 
+ * 基于Netty的{@link DnsNameResolver}, 不会阻塞IO线程.
+ * 解析结果按记录的TTL缓存(可通过配置限定上下限), 解析失败的结果按negativeTtl缓存.
+ * IP地址和hosts文件中的主机名无需查询DNS.
+ * </pre>
+ *
+ * @author lixiaohui
+ */
+final class HostResolver {
+
+    private final DnsNameResolver resolver;
+
+    HostResolver(EventLoop eventLoop, boolean epoll, AsyncHttpClientConfig config) {
+        DnsNameResolverBuilder builder = new DnsNameResolverBuilder(eventLoop)
+                .channelType(epoll ? EpollDatagramChannel.class : NioDatagramChannel.class)
+                .resolveCache(new DefaultDnsCache(config.getDnsMinTtl(), config.getDnsMaxTtl(),
+                        config.getDnsNegativeTtl()))
+                .queryTimeoutMillis(config.getDnsQueryTimeout());
+        if (config.getDnsServers() != null && !config.getDnsServers().isEmpty()) {
+            builder.nameServerProvider(new SequentialDnsServerAddressStreamProvider(config.getDnsServers()));
+        } else {
+            builder.nameServerProvider(DnsServerAddressStreamProviders.platformDefault());
+        }
+        this.resolver = builder.build();
+    }
+
+    /**
+     * 解析主机名的第一个地址
+     */
+    Future<InetAddress> resolve(String host) {
+        return resolver.resolve(host);
+    }
+
+    /**
+     * 解析主机名的所有地址
+     */
+    Future<List<InetAddress>> resolveAll(String host) {
+        return resolver.resolveAll(host);
+    }
+
+    void close() {
+        resolver.close();
+    }
+}
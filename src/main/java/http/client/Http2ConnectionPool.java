@@ -0,0 +1,864 @@
+package http.client;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLParameters;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import http.RequestBody;
+import http.client.AsyncHttpClient.ProtocolAdapter;
+import http.client.MetricsCollector.ServerMetrics;
+import http.util.future.IFuture;
+import http.util.future.IFutureListener;
+import http.util.future.SynchronousExecutor;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http2.DefaultHttp2Connection;
+import io.netty.handler.codec.http2.DelegatingDecompressorFrameListener;
+import io.netty.handler.codec.http2.Http2Connection;
+import io.netty.handler.codec.http2.Http2ConnectionAdapter;
+import io.netty.handler.codec.http2.Http2Error;
+import io.netty.handler.codec.http2.Http2FrameListener;
+import io.netty.handler.codec.http2.Http2RemoteFlowController;
+import io.netty.handler.codec.http2.Http2SecurityUtil;
+import io.netty.handler.codec.http2.Http2Settings;
+import io.netty.handler.codec.http2.Http2Stream;
+import io.netty.handler.codec.http2.HttpConversionUtil.ExtensionHeaderNames;
+import io.netty.handler.codec.http2.HttpToHttp2ConnectionHandler;
+import io.netty.handler.codec.http2.HttpToHttp2ConnectionHandlerBuilder;
+import io.netty.handler.codec.http2.InboundHttp2ToHttpAdapterBuilder;
+import io.netty.handler.ssl.ApplicationProtocolConfig;
+import io.netty.handler.ssl.ApplicationProtocolConfig.Protocol;
+import io.netty.handler.ssl.ApplicationProtocolConfig.SelectedListenerFailureBehavior;
+import io.netty.handler.ssl.ApplicationProtocolConfig.SelectorFailureBehavior;
+import io.netty.handler.ssl.ApplicationProtocolNames;
+import io.netty.handler.ssl.ApplicationProtocolNegotiationHandler;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslContextBuilder;
+import io.netty.handler.ssl.SslHandler;
+import io.netty.handler.ssl.SupportedCipherSuiteFilter;
+import io.netty.handler.stream.ChunkedInput;
+import io.netty.util.collection.IntObjectHashMap;
+import io.netty.util.collection.IntObjectMap;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.GenericFutureListener;
+import io.netty.util.concurrent.ImmediateEventExecutor;
+import io.netty.util.concurrent.Promise;
+
+/**
+ * <pre>
+ * HTTP/2连接池
+ *
+ * 每个服务端只建立少量连接, 请求以stream的形式在连接上多路复用.
+ * 每个连接上同时打开的stream数不超过服务端通告的SETTINGS_MAX_CONCURRENT_STREAMS,
+ * 所有连接都满时获取请求会排队, 直到有stream关闭.
+ * 流式请求体按各自stream的流控窗口逐块写出DATA帧, 一个慢速或较大的上传不会阻塞同一连接上的其它stream.
+ *
+ * http协议使用h2c(prior knowledge), https协议通过ALPN协商h2.
+ * </pre>
+ *
+ * @author lixiaohui
+ */
+final class Http2ConnectionPool {
+
+	private static final Logger logger = LoggerFactory.getLogger(Http2ConnectionPool.class);
+
+	/** scheme://host:port -> Endpoint */
+	private final ConcurrentHashMap<String, Endpoint> endpoints = new ConcurrentHashMap<>();
+
+	private final Bootstrap bootstrap;
+
+	private final HostResolver resolver;
+
+	private final AsyncHttpClientConfig config;
+
+	private final MetricsCollector metricsCollector;
+
+	private volatile SslContext sslContext;
+
+	/**
+	 * @param metricsCollector 指标采集, 为null时不采集
+	 */
+	Http2ConnectionPool(Bootstrap bootstrap, HostResolver resolver, AsyncHttpClientConfig config,
+			MetricsCollector metricsCollector) {
+		this.bootstrap = bootstrap;
+		this.resolver = resolver;
+		this.config = config;
+		this.metricsCollector = metricsCollector;
+	}
+
+	/**
+	 * 获取一个可以再打开一个stream的连接, 返回的连接上已为调用者预留了一个stream
+	 */
+	Future<Channel> acquire(URI uri) {
+		final boolean secure = "https".equalsIgnoreCase(uri.getScheme());
+		final String host = uri.getHost();
+		final int port = uri.getPort() > 0 ? uri.getPort() : (secure ? 443 : 80);
+		final String key = (secure ? "https://" : "http://") + host + ":" + port;
+		Endpoint endpoint = endpoints.get(key);
+		if (endpoint == null) {
+			Endpoint newEndpoint = new Endpoint(host, port, secure);
+			Endpoint oldEndpoint = endpoints.putIfAbsent(key, newEndpoint);
+			endpoint = oldEndpoint == null ? newEndpoint : oldEndpoint;
+		}
+		return endpoint.acquire();
+	}
+
+	void close() {
+		for (Endpoint endpoint : endpoints.values()) {
+			endpoint.close();
+		}
+		endpoints.clear();
+	}
+
+	private SslContext sslContext() throws SSLException {
+		SslContext sslContext = this.sslContext;
+		if (sslContext == null) {
+			synchronized (this) {
+				if ((sslContext = this.sslContext) == null) {
+					sslContext = SslContextBuilder.forClient()
+							.ciphers(Http2SecurityUtil.CIPHERS, SupportedCipherSuiteFilter.INSTANCE)
+							.applicationProtocolConfig(new ApplicationProtocolConfig(Protocol.ALPN,
+									SelectorFailureBehavior.NO_ADVERTISE, SelectedListenerFailureBehavior.ACCEPT,
+									ApplicationProtocolNames.HTTP_2))
+							.build();
+					this.sslContext = sslContext;
+				}
+			}
+		}
+		return sslContext;
+	}
+
+	/**
+	 * 一个服务端对应的所有HTTP/2连接
+	 */
+	final class Endpoint {
+
+		final String host;
+		final int port;
+		final boolean secure;
+		final ServerMetrics metrics;
+
+		final List<Http2ClientHandler> connections = new CopyOnWriteArrayList<>();
+
+		/** 等待可用stream的获取请求, 访问需同步 */
+		private final ArrayDeque<Promise<Channel>> waiters = new ArrayDeque<>();
+		private int connecting;
+		private boolean closed;
+
+		Endpoint(String host, int port, boolean secure) {
+			this.host = host;
+			this.port = port;
+			this.secure = secure;
+			this.metrics = ChannelMetrics.newServerMetrics(metricsCollector, host + ":" + port);
+		}
+
+		Future<Channel> acquire() {
+			for (Http2ClientHandler connection : connections) {
+				if (connection.tryReserveStream()) {
+					return ImmediateEventExecutor.INSTANCE.newSucceededFuture(connection.channel());
+				}
+			}
+
+			Promise<Channel> promise = ImmediateEventExecutor.INSTANCE.newPromise();
+			boolean connect = false;
+			synchronized (this) {
+				if (closed) {
+					return promise.setFailure(new IOException("The http2 connection pool has been closed"));
+				}
+				waiters.offer(promise);
+				metrics.acquireStarted();
+				if (connections.size() + connecting < config.getHttp2ConnectionsEachServer()) {
+					connecting++;
+					connect = true;
+				}
+			}
+			promise.addListener(new GenericFutureListener<Future<Channel>>() {
+
+				@Override
+				public void operationComplete(Future<Channel> f) throws Exception {
+					metrics.acquireCompleted(f.isSuccess());
+				}
+			});
+			if (connect) {
+				connect();
+			} else {
+				dispatch(); // 排队期间可能已有stream关闭
+			}
+			return promise;
+		}
+
+		private void connect() {
+			final Promise<Http2ClientHandler> ready = ImmediateEventExecutor.INSTANCE.newPromise();
+			final Bootstrap b = bootstrap.clone();
+			b.handler(new ChannelInitializer<Channel>() {
+
+				@Override
+				protected void initChannel(Channel ch) throws Exception {
+					ChannelMetrics.bind(ch, metrics);
+					if (secure) {
+						SslHandler sslHandler = sslContext().newHandler(ch.alloc(), host, port);
+						// 校验证书中的主机名, 否则任何主机的合法证书都会被接受
+						SSLParameters sslParameters = sslHandler.engine().getSSLParameters();
+						sslParameters.setEndpointIdentificationAlgorithm("HTTPS");
+						sslHandler.engine().setSSLParameters(sslParameters);
+						ch.pipeline().addLast("SSL_HANDLER", sslHandler);
+						ch.pipeline().addLast("ALPN_HANDLER", new ApplicationProtocolNegotiationHandler("") {
+
+							@Override
+							protected void configurePipeline(ChannelHandlerContext ctx, String protocol)
+									throws Exception {
+								if (!ApplicationProtocolNames.HTTP_2.equals(protocol)) {
+									throw new IOException("Server " + host + ":" + port
+											+ " does not support h2, negotiated protocol: " + protocol);
+								}
+								initHttp2Pipeline(ctx.pipeline(), ready);
+							}
+
+							@Override
+							protected void handshakeFailure(ChannelHandlerContext ctx, Throwable cause)
+									throws Exception {
+								ready.tryFailure(cause);
+								super.handshakeFailure(ctx, cause);
+							}
+						});
+					} else {
+						initHttp2Pipeline(ch.pipeline(), ready);
+					}
+				}
+			});
+
+			resolver.resolveAll(host).addListener(new GenericFutureListener<Future<List<InetAddress>>>() {
+
+				@Override
+				public void operationComplete(Future<List<InetAddress>> f) throws Exception {
+					if (!f.isSuccess()) {
+						ready.tryFailure(f.cause());
+						return;
+					}
+					try {
+						connect(b, select(f.getNow()), ready);
+					} catch (Throwable e) {
+						ready.tryFailure(e);
+					}
+				}
+			});
+
+			ready.addListener(new GenericFutureListener<Future<Http2ClientHandler>>() {
+
+				@Override
+				public void operationComplete(Future<Http2ClientHandler> f) throws Exception {
+					onConnected(f);
+				}
+			});
+		}
+
+		/**
+		 * 由{@link LoadBalancer}为新连接选择地址, 地址上未完成的请求数为到该地址的连接上已预留的stream数
+		 */
+		private InetSocketAddress select(List<InetAddress> addresses) {
+			if (addresses.size() == 1) {
+				return new InetSocketAddress(addresses.get(0), port);
+			}
+			List<Peer> candidates = new ArrayList<>(addresses.size());
+			for (InetAddress address : addresses) {
+				candidates.add(new Peer(new InetSocketAddress(address, port)));
+			}
+			for (Http2ClientHandler connection : connections) {
+				for (Peer peer : candidates) {
+					if (peer.address.equals(connection.channel().remoteAddress())) {
+						peer.outstanding += connection.reservedStreams();
+						break;
+					}
+				}
+			}
+			return LoadBalancers.select(config.getLoadBalancer(), candidates).address;
+		}
+
+		private void connect(Bootstrap b, InetSocketAddress address, final Promise<Http2ClientHandler> ready) {
+			b.connect(address).addListener(new ChannelFutureListener() {
+
+				@Override
+				public void operationComplete(ChannelFuture f) throws Exception {
+					if (!f.isSuccess()) {
+						ready.tryFailure(f.cause());
+						return;
+					}
+					f.channel().closeFuture().addListener(new ChannelFutureListener() {
+
+						@Override
+						public void operationComplete(ChannelFuture f) throws Exception {
+							ready.tryFailure(new IOException("Connection closed before http2 was negotiated"));
+						}
+					});
+				}
+			});
+		}
+
+		private void initHttp2Pipeline(ChannelPipeline pipeline, Promise<Http2ClientHandler> ready) {
+			Http2Connection connection = new DefaultHttp2Connection(false);
+			Http2FrameListener listener = new InboundHttp2ToHttpAdapterBuilder(connection)
+					.maxContentLength(config.getMaxContentLength())
+					.propagateSettings(true)
+					.build();
+			if (config.isCompressionEnabled()) { // 在转换为HTTP消息前逐帧解压
+				listener = new DelegatingDecompressorFrameListener(connection, listener);
+			}
+			HttpToHttp2ConnectionHandler connectionHandler = new HttpToHttp2ConnectionHandlerBuilder()
+					.connection(connection)
+					.initialSettings(Http2Settings.defaultSettings()
+							.initialWindowSize(config.getHttp2InitialWindowSize()))
+					.frameListener(listener)
+					.build();
+			Http2ClientHandler clientHandler = new Http2ClientHandler(this, connectionHandler, secure,
+					config.isPooledResponseBody());
+			Transports.addFlushConsolidator(pipeline, config); // 位于TLS之后, 合并后的数据一起加密
+			pipeline.addLast("HTTP2_CONNECTION_HANDLER", connectionHandler);
+			if (config.isCompressionEnabled()) {
+				pipeline.addLast("REQUEST_COMPRESSOR", new RequestCompressor(config.getRequestCompressionThreshold()));
+			}
+			pipeline.addLast("HTTP2_CLIENT_HANDLER", clientHandler);
+			clientHandler.ready = ready;
+		}
+
+		private void onConnected(Future<Http2ClientHandler> f) {
+			List<Promise<Channel>> failed = null;
+			synchronized (this) {
+				connecting--;
+				if (f.isSuccess()) {
+					if (closed) {
+						f.getNow().channel().close();
+					} else {
+						connections.add(f.getNow());
+					}
+				} else if (connections.isEmpty() && connecting == 0) {
+					// 没有可用连接, 所有等待者都失败
+					failed = new ArrayList<>(waiters);
+					waiters.clear();
+				}
+			}
+			if (failed != null) {
+				IOException cause = new IOException("Failed to connect to " + host + ":" + port, f.cause());
+				for (Promise<Channel> waiter : failed) {
+					waiter.tryFailure(cause);
+				}
+			}
+			dispatch();
+		}
+
+		/**
+		 * 将空闲的stream分配给等待者
+		 */
+		void dispatch() {
+			for (;;) {
+				Promise<Channel> waiter;
+				Http2ClientHandler reserved = null;
+				synchronized (this) {
+					waiter = waiters.peek();
+					if (waiter == null) {
+						return;
+					}
+					for (Http2ClientHandler connection : connections) {
+						if (connection.tryReserveStream()) {
+							reserved = connection;
+							break;
+						}
+					}
+					if (reserved == null) {
+						return;
+					}
+					waiters.poll();
+				}
+				if (!waiter.trySuccess(reserved.channel())) {
+					reserved.releaseStream();
+				}
+			}
+		}
+
+		void onClosed(Http2ClientHandler connection) {
+			boolean connect = false;
+			synchronized (this) {
+				connections.remove(connection);
+				if (!closed && !waiters.isEmpty()
+						&& connections.size() + connecting < config.getHttp2ConnectionsEachServer()) {
+					connecting++;
+					connect = true;
+				}
+			}
+			if (connect) {
+				connect();
+			}
+		}
+
+		void close() {
+			List<Promise<Channel>> pending;
+			synchronized (this) {
+				closed = true;
+				pending = new ArrayList<>(waiters);
+				waiters.clear();
+			}
+			IOException cause = new IOException("The http2 connection pool has been closed");
+			for (Promise<Channel> waiter : pending) {
+				waiter.tryFailure(cause);
+			}
+			for (Http2ClientHandler connection : connections) {
+				connection.channel().close();
+			}
+		}
+	}
+
+	/**
+	 * 新建连接时的候选地址
+	 */
+	private static final class Peer implements LoadBalancer.Endpoint {
+
+		final InetSocketAddress address;
+		int outstanding;
+
+		Peer(InetSocketAddress address) {
+			this.address = address;
+		}
+
+		@Override
+		public InetSocketAddress address() {
+			return address;
+		}
+
+		@Override
+		public int outstandingRequests() {
+			return outstanding;
+		}
+	}
+
+	/**
+	 * <pre>
+	 * 将{@link ResponseFuture}映射到HTTP/2 stream
+	 *
+	 * stream表只在IO线程中访问, stream预留计数可跨线程访问.
+	 * </pre>
+	 */
+	static final class Http2ClientHandler extends ChannelDuplexHandler {
+
+		private final Endpoint endpoint;
+		private final HttpToHttp2ConnectionHandler connectionHandler;
+		private final Http2Connection connection;
+		private final String scheme;
+		private final boolean pooledBody;
+
+		/** streamId -> future */
+		private final IntObjectMap<ResponseFuture> streams = new IntObjectHashMap<>();
+
+		/** streamId -> 正在写出的流式请求体 */
+		private final IntObjectMap<BodyWriter> bodyWriters = new IntObjectHashMap<>();
+
+		/** 持有预留的stream, stream关闭时才归还预留, 避免响应已读到但stream尚未关闭时超出并发上限 */
+		private final IntObjectMap<Boolean> reservations = new IntObjectHashMap<>();
+
+		/** 已预留(含已打开)的stream数 */
+		private final AtomicInteger reservedStreams = new AtomicInteger();
+
+		private volatile ChannelHandlerContext ctx;
+
+		/** 收到服务端SETTINGS后完成 */
+		Promise<Http2ClientHandler> ready;
+
+		Http2ClientHandler(Endpoint endpoint, HttpToHttp2ConnectionHandler connectionHandler, boolean secure,
+				boolean pooledBody) {
+			this.endpoint = endpoint;
+			this.connectionHandler = connectionHandler;
+			this.connection = connectionHandler.connection();
+			this.scheme = secure ? "https" : "http";
+			this.pooledBody = pooledBody;
+		}
+
+		Channel channel() {
+			return ctx.channel();
+		}
+
+		boolean tryReserveStream() {
+			if (!ctx.channel().isActive() || connection.goAwayReceived()) {
+				return false;
+			}
+			// 本端可打开的最大stream数即服务端通告的SETTINGS_MAX_CONCURRENT_STREAMS
+			final int maxStreams = connection.local().maxActiveStreams();
+			for (;;) {
+				int reserved = reservedStreams.get();
+				if (reserved >= maxStreams) {
+					return false;
+				}
+				if (reservedStreams.compareAndSet(reserved, reserved + 1)) {
+					return true;
+				}
+			}
+		}
+
+		/**
+		 * 已预留(含已打开)的stream数
+		 */
+		int reservedStreams() {
+			return reservedStreams.get();
+		}
+
+		void releaseStream() {
+			reservedStreams.decrementAndGet();
+			endpoint.dispatch();
+		}
+
+		/**
+		 * 归还stream持有的预留, 重复调用无副作用, 只在IO线程中调用
+		 */
+		private void releaseStream(int streamId) {
+			if (reservations.remove(streamId) != null) {
+				releaseStream();
+			}
+		}
+
+		@Override
+		public void handlerAdded(ChannelHandlerContext ctx) throws Exception {
+			this.ctx = ctx;
+			connection.addListener(new Http2ConnectionAdapter() {
+
+				@Override
+				public void onStreamClosed(Http2Stream stream) {
+					BodyWriter writer = bodyWriters.remove(stream.id());
+					if (writer != null) {
+						writer.close(new IOException("HTTP/2 stream " + stream.id() + " closed before request body sent"));
+					}
+					ResponseFuture future = streams.remove(stream.id());
+					if (future != null) { // 未收到完整响应stream就已关闭(如RST_STREAM, GOAWAY)
+						future.setFailure(new IOException("HTTP/2 stream " + stream.id() + " closed before response received"));
+					}
+					releaseStream(stream.id());
+				}
+			});
+			connectionHandler.encoder().flowController().listener(new Http2RemoteFlowController.Listener() {
+
+				@Override
+				public void writabilityChanged(Http2Stream stream) {
+					BodyWriter writer = bodyWriters.get(stream.id());
+					if (writer != null) {
+						writer.schedule();
+					}
+				}
+			});
+			if (ctx.channel().isActive()) { // TLS连接在协商出h2后才初始化pipeline
+				ctx.flush();
+			}
+		}
+
+		@Override
+		public void channelActive(ChannelHandlerContext ctx) throws Exception {
+			ctx.fireChannelActive();
+			// 连接前言和SETTINGS只写入未flush, 需立即发出, 服务端才会回复SETTINGS
+			ctx.flush();
+		}
+
+		@Override
+		public void write(final ChannelHandlerContext ctx, Object msg, final ChannelPromise promise) throws Exception {
+			if (!(msg instanceof ResponseFuture)) {
+				ctx.write(msg, promise);
+				return;
+			}
+
+			final ResponseFuture future = (ResponseFuture) msg;
+			if (future.isDone()) { // 等待stream期间已超时
+				releaseStream();
+				promise.trySuccess();
+				return;
+			}
+
+			final RequestBody body = future.getRequest().getRequestBody();
+			ChunkedInput<ByteBuf> chunks = null;
+			if (body != null) {
+				try {
+					chunks = RequestBodies.chunks(body);
+				} catch (IOException e) {
+					releaseStream();
+					promise.tryFailure(e);
+					return;
+				}
+			}
+			final int streamId = connection.local().incrementAndGetNextStreamId();
+			io.netty.handler.codec.http.HttpRequest request = body == null
+					? ProtocolAdapter.toNettyRequest(future.getRequest())
+					: ProtocolAdapter.toNettyRequestHead(future.getRequest());
+			request.headers().setInt(ExtensionHeaderNames.STREAM_ID.text(), streamId);
+			request.headers().set(ExtensionHeaderNames.SCHEME.text(), scheme);
+			streams.put(streamId, future);
+			reservations.put(streamId, Boolean.TRUE);
+
+			if (chunks != null) {
+				// 请求头之后的请求体以DATA帧直接交给流控, 按该stream的窗口写出, 与其它stream的帧交错发送
+				ctx.write(request).addListener(new ChannelFutureListener() {
+
+					@Override
+					public void operationComplete(ChannelFuture f) throws Exception {
+						if (!f.isSuccess()) {
+							promise.tryFailure(f.cause());
+						}
+					}
+				});
+				BodyWriter writer = new BodyWriter(ctx, streamId, chunks, promise);
+				bodyWriters.put(streamId, writer);
+				writer.write(false); // 由调用者flush
+			} else {
+				ctx.write(request, promise);
+			}
+
+			promise.addListener(new ChannelFutureListener() {
+
+				@Override
+				public void operationComplete(ChannelFuture f) throws Exception {
+					if (!f.isSuccess()) {
+						if (streams.remove(streamId) != null) {
+							future.setFailure(f.cause());
+						}
+						releaseStream(streamId); // stream可能未创建, 不会触发onStreamClosed
+					}
+				}
+			});
+
+			// 请求超时等原因提前完成时重置stream, 及时释放服务端和本端的资源
+			future.addListener(new IFutureListener() {
+
+				@Override
+				public void operationCompleted(IFuture f) throws Exception {
+					if (f.isSuccessful()) {
+						return;
+					}
+					ctx.executor().execute(new Runnable() {
+
+						@Override
+						public void run() {
+							if (streams.remove(streamId) == future) {
+								connectionHandler.resetStream(ctx, streamId, Http2Error.CANCEL.code(),
+										ctx.newPromise());
+								ctx.flush();
+								releaseStream(streamId);
+							}
+						}
+					});
+				}
+			}, SynchronousExecutor.INSTANCE); // 内部处理不经过回调线程池, 以免RST_STREAM和释放stream被延迟
+		}
+
+		@Override
+		public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+			if (msg instanceof Http2Settings) {
+				// 收到服务端的SETTINGS后才知道其允许的最大并发stream数, 此前分配stream可能超限被拒绝
+				ready.trySuccess(this);
+				return;
+			}
+			if (!(msg instanceof FullHttpResponse)) {
+				ctx.fireChannelRead(msg);
+				return;
+			}
+
+			FullHttpResponse nettyResponse = (FullHttpResponse) msg;
+			try {
+				Integer streamId = nettyResponse.headers().getInt(ExtensionHeaderNames.STREAM_ID.text());
+				nettyResponse.headers().remove(ExtensionHeaderNames.STREAM_ID.text());
+				ResponseFuture future = streamId == null ? null : streams.remove(streamId);
+				if (future == null) {
+					logger.warn("Recieved a response on stream {}, but no correlated request future found.",
+							streamId);
+					return;
+				}
+				if (future.isStreaming()) {
+					// 响应已由协议层聚合, 作为一块数据回调
+					boolean proceed = future.streamHeaders(ProtocolAdapter.toHttpStatus(nettyResponse.status()),
+							ProtocolAdapter.toHttpHeaders(nettyResponse.headers()),
+							nettyResponse.content().readableBytes());
+					if (proceed && nettyResponse.content().isReadable()) {
+						proceed = future.streamChunk(nettyResponse.content().nioBuffer());
+					}
+					future.streamComplete(!proceed);
+				} else {
+					future.complete(ProtocolAdapter.toHttpResponse(nettyResponse,
+							pooledBody));
+				}
+				// 预留在stream关闭时归还(见onStreamClosed)
+			} finally {
+				nettyResponse.release();
+			}
+		}
+
+		@Override
+		public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+			InetSocketAddress addr = (InetSocketAddress) ctx.channel().remoteAddress();
+			logger.info("http2 connection to {} closed, channelId = {}", addr, ctx.channel().id());
+
+			if (!bodyWriters.isEmpty()) {
+				IOException cause = new IOException("Connection closed before request body sent");
+				for (BodyWriter writer : new ArrayList<>(bodyWriters.values())) {
+					writer.close(cause);
+				}
+			}
+			if (!streams.isEmpty()) {
+				IOException cause = new IOException("Connection closed before response received");
+				for (ResponseFuture future : streams.values()) {
+					future.setFailure(cause);
+				}
+				streams.clear();
+			}
+			endpoint.onClosed(this);
+			ctx.fireChannelInactive();
+		}
+
+		@Override
+		public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
+			logger.error("Unexpected exception caught: {}", cause.getMessage(), cause);
+		}
+
+		/**
+		 * <pre>
+		 * 一个stream的流式请求体
+		 *
+		 * 只在stream可写(流控窗口有余量且连接可写)时读取下一块数据, 交给流控后由其按窗口写出DATA帧,
+		 * stream重新可写时再继续. 只在IO线程中访问.
+		 * </pre>
+		 */
+		private final class BodyWriter implements Runnable {
+
+			private final ChannelHandlerContext ctx;
+			private final int streamId;
+			private final ChunkedInput<ByteBuf> chunks;
+			/** 请求体全部写出(END_STREAM)后完成 */
+			private final ChannelPromise promise;
+
+			private boolean scheduled;
+			private boolean done;
+
+			BodyWriter(ChannelHandlerContext ctx, int streamId, ChunkedInput<ByteBuf> chunks, ChannelPromise promise) {
+				this.ctx = ctx;
+				this.streamId = streamId;
+				this.chunks = chunks;
+				this.promise = promise;
+			}
+
+			/**
+			 * stream的可写性变化时由流控回调, 稍后在IO线程中继续写出, 不在流控写出数据的过程中重入
+			 */
+			void schedule() {
+				if (!scheduled && !done) {
+					scheduled = true;
+					ctx.executor().execute(this);
+				}
+			}
+
+			@Override
+			public void run() {
+				scheduled = false;
+				write(true);
+			}
+
+			void write(boolean flush) {
+				if (done) {
+					return;
+				}
+				Http2Stream stream = connection.stream(streamId);
+				if (stream == null) {
+					close(new IOException("HTTP/2 stream " + streamId + " closed before request body sent"));
+					return;
+				}
+				ChannelHandlerContext connectionCtx = ctx.pipeline().context(connectionHandler);
+				boolean written = false;
+				try {
+					while (!done && connectionHandler.encoder().flowController().isWritable(stream)) {
+						ByteBuf chunk = chunks.readChunk(ctx.alloc());
+						boolean end = chunks.isEndOfInput();
+						if (chunk == null) {
+							if (!end) { // 数据块尚未就绪, 稍后重试
+								schedule();
+								break;
+							}
+							chunk = Unpooled.EMPTY_BUFFER;
+						}
+						ChannelPromise dataPromise = end ? promise : connectionCtx.newPromise();
+						if (end) {
+							done = true;
+							bodyWriters.remove(streamId);
+							closeChunks();
+						} else {
+							dataPromise.addListener(new ChannelFutureListener() {
+
+								@Override
+								public void operationComplete(ChannelFuture f) throws Exception {
+									if (!f.isSuccess()) {
+										fail(f.cause());
+									}
+								}
+							});
+						}
+						connectionHandler.encoder().writeData(connectionCtx, streamId, chunk, 0, end, dataPromise);
+						written = true;
+					}
+				} catch (Exception e) {
+					fail(e);
+					return;
+				}
+				if (written && flush) {
+					ctx.flush();
+				}
+			}
+
+			/**
+			 * 读取或写出请求体失败, 请求失败并重置stream
+			 */
+			void fail(Throwable cause) {
+				if (done) {
+					return;
+				}
+				close(cause);
+				if (connection.stream(streamId) != null) {
+					connectionHandler.resetStream(ctx.pipeline().context(connectionHandler), streamId,
+							Http2Error.CANCEL.code(), ctx.newPromise());
+					ctx.flush();
+				}
+			}
+
+			/**
+			 * 不再写出请求体, 未完成的请求以cause失败
+			 */
+			void close(Throwable cause) {
+				if (done) {
+					return;
+				}
+				done = true;
+				bodyWriters.remove(streamId);
+				closeChunks();
+				promise.tryFailure(cause);
+			}
+
+			private void closeChunks() {
+				try {
+					chunks.close();
+				} catch (Exception e) {
+					logger.debug("Failed to close request body of stream {}", streamId, e);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,420 @@
+package http.client;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeSet;
+
+import http.HttpHeaders;
+import http.HttpHeaders.HttpHeaderNames;
+import http.HttpMethod;
+import http.HttpRequest;
+import http.HttpResponse;
+import http.HttpStatus;
+import io.netty.handler.codec.DateFormatter;
+
+/**
+ * <pre>
+ * RFC 7234缓存策略, 作为私有缓存工作
+ * 
+ * 只缓存GET请求, 支持Cache-Control(max-age, no-cache, no-store), Expires, Vary, 
+ * 以及基于ETag/Last-Modified的条件请求重新验证, 缺少显式过期时间时按Last-Modified启发式计算.
+ * 非安全方法的请求成功后会使对应URI的缓存失效.
+ *
+ * 带有Vary的响应按Vary列出的请求头的值分别缓存(键见{@link #variantKey}), 同一URI的多个变体可以同时存在,
+ * URI的键下存放变体目录, 记录Vary列出的请求头名字.
+ * </pre>
+ *
+ * @author lixiaohui
+ */
+final class HttpCache {
+
+    /** 启发式新鲜度: (Date - Last-Modified)的10% */
+    private static final int HEURISTIC_FRACTION = 10;
+
+    /**
+     * 变体目录的状态码, 不会出现在真实的响应中. 目录的Vary头名字即各变体的键中包含的请求头,
+     * requestTime是目录的创建时间, 早于该时间存入的变体(如失效之前的)不再使用
+     */
+    private static final HttpStatus VARIANTS = new HttpStatus(0, "Variants");
+
+    private final ResponseCache store;
+
+    private final boolean pooledBody; // 是否以PooledHttpResponse返回缓存的响应
+
+    HttpCache(ResponseCache store, boolean pooledBody) {
+        this.store = store;
+        this.pooledBody = pooledBody;
+    }
+
+    /**
+     * 查找与请求匹配的缓存项, 请求不可使用缓存时返回null
+     */
+    CacheEntry lookup(HttpRequest request) {
+        if (request.getMethod() != HttpMethod.GET || request.getRequestBody() != null) {
+            return null;
+        }
+        if (hasDirective(header(request.getHeaders(), HttpHeaderNames.CACHE_CONTROL), "no-store")) {
+            return null;
+        }
+        final String key = key(request);
+        CacheEntry entry = store.get(key);
+        if (entry != null && isVariants(entry)) {
+            CacheEntry variant = store.get(variantKey(key, entry.getVaryHeaders().keySet(), request));
+            entry = variant != null && variant.getRequestTime() >= entry.getRequestTime() ? variant : null;
+        }
+        if (entry == null) {
+            return null;
+        }
+        for (Entry<String, String> vary : entry.getVaryHeaders().entrySet()) {
+            if (!equals(vary.getValue(), varyValue(request, vary.getKey()))) {
+                return null;
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * 以缓存项构造交给调用者的响应
+     */
+    HttpResponse toResponse(CacheEntry entry) {
+        return entry.toResponse(pooledBody);
+    }
+
+    /**
+     * 缓存项对该请求是否仍然新鲜, 可以不经重新验证直接使用
+     */
+    boolean isFresh(CacheEntry entry, HttpRequest request, long now) {
+        String requestCacheControl = header(request.getHeaders(), HttpHeaderNames.CACHE_CONTROL);
+        if (hasDirective(requestCacheControl, "no-cache")
+                || "no-cache".equalsIgnoreCase(header(request.getHeaders(), HttpHeaderNames.PRAGMA))) {
+            return false;
+        }
+        String cacheControl = header(entry.getHeaders(), HttpHeaderNames.CACHE_CONTROL);
+        if (hasDirective(cacheControl, "no-cache")) {
+            return false;
+        }
+        long lifetime = freshnessLifetime(entry, cacheControl);
+        long requestMaxAge = directiveSeconds(requestCacheControl, "max-age");
+        if (requestMaxAge >= 0) {
+            lifetime = Math.min(lifetime, requestMaxAge * 1000);
+        }
+        return currentAge(entry, now) < lifetime;
+    }
+
+    /**
+     * 以缓存项的验证器(ETag, Last-Modified)构造条件请求, 缓存项没有验证器时返回原请求
+     */
+    HttpRequest conditionalRequest(HttpRequest request, CacheEntry entry) {
+        String etag = header(entry.getHeaders(), HttpHeaderNames.ETAG);
+        String lastModified = header(entry.getHeaders(), HttpHeaderNames.LAST_MODIFIED);
+        if (etag == null && lastModified == null) {
+            return request;
+        }
+        HttpHeaders headers = new HttpHeaders(request.getHeaders());
+        if (etag != null) {
+            headers.set(HttpHeaderNames.IF_NONE_MATCH, etag);
+        }
+        if (lastModified != null) {
+            headers.set(HttpHeaderNames.IF_MODIFIED_SINCE, lastModified);
+        }
+        return new HttpRequest(request.getUri(), request.getMethod(), request.getBody(), headers);
+    }
+
+    /**
+     * <pre>
+     * 处理网络响应: 304时以新的响应头更新缓存项并返回缓存的响应, 可缓存的响应存入缓存, 
+     * 非安全方法的成功响应使缓存失效
+     * </pre>
+     * 
+     * @param request 原请求
+     * @param stale 重新验证的缓存项, 可能为null
+     * @return 交给调用者的响应
+     */
+    HttpResponse onResponse(HttpRequest request, CacheEntry stale, HttpResponse response, long requestTime,
+            long responseTime) {
+        final int code = response.getStatus().getCode();
+        if (request.getMethod() != HttpMethod.GET) {
+            if (code < 400 && !isSafe(request.getMethod())) {
+                store.remove(key(request));
+            }
+            return response;
+        }
+        if (stale != null && code == 304) {
+            // 以304的响应头更新缓存的响应头(RFC 7234 4.3.4), 描述响应体的头不更新
+            HttpHeaders headers = new HttpHeaders();
+            HttpHeaders stored = stale.getHeaders();
+            HttpHeaders fresh = response.getHeaders();
+            for (int i = 0; i < stored.size(); i++) {
+                if (isRepresentationHeader(stored.name(i)) || !fresh.contains(stored.name(i))) {
+                    headers.add(stored.name(i), stored.value(i));
+                }
+            }
+            for (int i = 0; i < fresh.size(); i++) {
+                if (!isRepresentationHeader(fresh.name(i))) {
+                    headers.add(fresh.name(i), fresh.value(i));
+                }
+            }
+            CacheEntry refreshed = stale.refresh(headers, requestTime, responseTime);
+            store(request, refreshed);
+            ResponseFuture.discard(response);
+            return refreshed.toResponse(pooledBody);
+        }
+        if (isStorable(request, response)) {
+            store(request, new CacheEntry(response.getStatus(), response.getHeaders(),
+                    bodyOf(response), varyHeaders(request, response), requestTime, responseTime));
+        } else if (code < 500) {
+            store.remove(key(request));
+        }
+        return response;
+    }
+
+    /**
+     * 存入缓存项, 带有Vary的缓存项存入其变体的键, 并在URI的键下存入变体目录(已有相同的目录时不再存入)
+     */
+    private void store(HttpRequest request, CacheEntry entry) {
+        final String key = key(request);
+        final Map<String, String> vary = entry.getVaryHeaders();
+        if (vary.isEmpty()) {
+            store.put(key, entry);
+            return;
+        }
+        CacheEntry variants = store.get(key);
+        if (variants == null || !isVariants(variants) || !variants.getVaryHeaders().keySet().equals(vary.keySet())) {
+            Map<String, String> names = new HashMap<>();
+            for (String name : vary.keySet()) {
+                names.put(name, null);
+            }
+            store.put(key, new CacheEntry(VARIANTS, new HttpHeaders(), (byte[]) null, names,
+                    entry.getRequestTime(), entry.getRequestTime()));
+        }
+        store.put(variantKey(key, vary.keySet(), request), entry);
+    }
+
+    private static boolean isVariants(CacheEntry entry) {
+        return entry.getStatus().getCode() == VARIANTS.getCode();
+    }
+
+    /**
+     * 变体的键: URI的键之后按名字顺序追加Vary列出的请求头及其规范化的值, 请求中没有的头只追加名字
+     */
+    private static String variantKey(String key, Collection<String> varyNames, HttpRequest request) {
+        StringBuilder buf = new StringBuilder(key);
+        for (String name : new TreeSet<>(varyNames)) {
+            buf.append('\n').append(name);
+            String value = varyValue(request, name);
+            if (value != null) {
+                buf.append(':').append(value);
+            }
+        }
+        return buf.toString();
+    }
+
+    /**
+     * 请求中Vary列出的头的规范化的值: 多个值以逗号连接, 去掉各项首尾的空白, 不存在时返回null
+     */
+    private static String varyValue(HttpRequest request, String name) {
+        String value = header(request.getHeaders(), name);
+        if (value == null) {
+            return null;
+        }
+        StringBuilder buf = new StringBuilder(value.length());
+        for (String item : value.split(",")) {
+            if (buf.length() > 0) {
+                buf.append(',');
+            }
+            buf.append(item.trim());
+        }
+        return buf.toString();
+    }
+
+    private boolean isStorable(HttpRequest request, HttpResponse response) {
+        if (hasDirective(header(request.getHeaders(), HttpHeaderNames.CACHE_CONTROL), "no-store")) {
+            return false;
+        }
+        String cacheControl = header(response.getHeaders(), HttpHeaderNames.CACHE_CONTROL);
+        if (hasDirective(cacheControl, "no-store")) {
+            return false;
+        }
+        String vary = header(response.getHeaders(), HttpHeaderNames.VARY);
+        if (vary != null && vary.trim().equals("*")) {
+            return false;
+        }
+        if (directiveSeconds(cacheControl, "max-age") >= 0
+                || header(response.getHeaders(), HttpHeaderNames.EXPIRES) != null) {
+            return true;
+        }
+        // 没有显式过期时间的响应, 只有默认可缓存的状态码才能启发式缓存或用于重新验证
+        switch (response.getStatus().getCode()) {
+        case 200: case 203: case 204: case 300: case 301: case 404: case 405: case 410: case 414: case 501:
+            return header(response.getHeaders(), HttpHeaderNames.ETAG) != null
+                    || header(response.getHeaders(), HttpHeaderNames.LAST_MODIFIED) != null
+                    || hasDirective(cacheControl, "public");
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * 新鲜期(ms), 依次取max-age, Expires - Date, 启发式新鲜期
+     */
+    private static long freshnessLifetime(CacheEntry entry, String cacheControl) {
+        long maxAge = directiveSeconds(cacheControl, "max-age");
+        if (maxAge >= 0) {
+            return maxAge * 1000;
+        }
+        long date = dateHeader(entry.getHeaders(), HttpHeaderNames.DATE, entry.getResponseTime());
+        String expires = header(entry.getHeaders(), HttpHeaderNames.EXPIRES);
+        if (expires != null) {
+            Date expiresDate = DateFormatter.parseHttpDate(expires);
+            return expiresDate == null ? 0 : Math.max(0, expiresDate.getTime() - date); // 非法的Expires视为已过期
+        }
+        long lastModified = dateHeader(entry.getHeaders(), HttpHeaderNames.LAST_MODIFIED, -1);
+        if (lastModified >= 0 && lastModified < date) {
+            return (date - lastModified) / HEURISTIC_FRACTION;
+        }
+        return 0;
+    }
+
+    /**
+     * 缓存项的当前年龄(ms), 见RFC 7234 4.2.3
+     */
+    private static long currentAge(CacheEntry entry, long now) {
+        long date = dateHeader(entry.getHeaders(), HttpHeaderNames.DATE, entry.getResponseTime());
+        long apparentAge = Math.max(0, entry.getResponseTime() - date);
+        long ageValue = 0;
+        String age = header(entry.getHeaders(), HttpHeaderNames.AGE);
+        if (age != null) {
+            try {
+                ageValue = Long.parseLong(age.trim()) * 1000;
+            } catch (NumberFormatException e) {
+                // ignore
+            }
+        }
+        long responseDelay = entry.getResponseTime() - entry.getRequestTime();
+        long correctedInitialAge = Math.max(apparentAge, ageValue + responseDelay);
+        return correctedInitialAge + (now - entry.getResponseTime());
+    }
+
+    private static Map<String, String> varyHeaders(HttpRequest request, HttpResponse response) {
+        String vary = header(response.getHeaders(), HttpHeaderNames.VARY);
+        if (vary == null) {
+            return null;
+        }
+        Map<String, String> varyHeaders = new HashMap<>();
+        for (String name : vary.split(",")) {
+            name = name.trim().toLowerCase();
+            if (!name.isEmpty()) {
+                varyHeaders.put(name, varyValue(request, name));
+            }
+        }
+        return varyHeaders;
+    }
+
+    private static byte[] bodyOf(HttpResponse response) {
+        if (response instanceof PooledHttpResponse) { // 池化的响应体会被调用者释放, 需要复制一份
+            PooledHttpResponse pooled = (PooledHttpResponse) response;
+            byte[] body = new byte[pooled.bodyLength()];
+            pooled.bodyBuffer().duplicate().get(body);
+            return body;
+        }
+        return response.getBody();
+    }
+
+    /**
+     * 描述响应体编码和长度的头, 304响应中的这些头(如解码器补上的content-length: 0)不适用于缓存的响应体
+     */
+    private static boolean isRepresentationHeader(String name) {
+        return HttpHeaderNames.CONTENT_LENGTH.equalsIgnoreCase(name)
+                || HttpHeaderNames.TRANSFER_ENCODING.equalsIgnoreCase(name)
+                || HttpHeaderNames.CONTENT_ENCODING.equalsIgnoreCase(name)
+                || HttpHeaderNames.CONTENT_RANGE.equalsIgnoreCase(name);
+    }
+
+    private static boolean isSafe(HttpMethod method) {
+        return method == HttpMethod.GET || method == HttpMethod.HEAD || method == HttpMethod.OPTIONS
+                || method == HttpMethod.TRACE;
+    }
+
+    static String key(HttpRequest request) {
+        return HttpMethod.GET.name() + " " + request.getUri();
+    }
+
+    /**
+     * 获取指定请求头(忽略大小写), 多个值以逗号连接, 不存在时返回null
+     */
+    static String header(HttpHeaders headers, String name) {
+        List<String> values = headers == null ? null : headers.get(name);
+        if (values == null || values.isEmpty()) {
+            return null;
+        }
+        if (values.size() == 1) {
+            return values.get(0);
+        }
+        StringBuilder buf = new StringBuilder();
+        for (String value : values) {
+            if (buf.length() > 0) {
+                buf.append(", ");
+            }
+            buf.append(value);
+        }
+        return buf.toString();
+    }
+
+    private static long dateHeader(HttpHeaders headers, String name, long def) {
+        String value = header(headers, name);
+        Date date = value == null ? null : DateFormatter.parseHttpDate(value);
+        return date == null ? def : date.getTime();
+    }
+
+    private static boolean hasDirective(String cacheControl, String directive) {
+        return directiveValue(cacheControl, directive) != null;
+    }
+
+    /**
+     * 以秒为单位的指令值, 不存在或非法时返回-1
+     */
+    private static long directiveSeconds(String cacheControl, String directive) {
+        String value = directiveValue(cacheControl, directive);
+        if (value == null || value.isEmpty()) {
+            return -1;
+        }
+        try {
+            return Math.max(0, Long.parseLong(value));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Cache-Control中指定指令的值, 指令不存在时返回null, 没有值时返回空串
+     */
+    private static String directiveValue(String cacheControl, String directive) {
+        if (cacheControl == null) {
+            return null;
+        }
+        for (String token : cacheControl.split(",")) {
+            token = token.trim();
+            int eq = token.indexOf('=');
+            String name = eq < 0 ? token : token.substring(0, eq).trim();
+            if (name.equalsIgnoreCase(directive)) {
+                if (eq < 0) {
+                    return "";
+                }
+                String value = token.substring(eq + 1).trim();
+                if (value.length() >= 2 && value.charAt(0) == '"' && value.charAt(value.length() - 1) == '"') {
+                    value = value.substring(1, value.length() - 1);
+                }
+                return value;
+            }
+        }
+        return null;
+    }
+
+    private static boolean equals(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
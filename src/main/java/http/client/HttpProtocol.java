@@ -0,0 +1,15 @@
+package http.client;
+
+/**
+ * {@link AsyncHttpClient}与服务端通信使用的协议
+ *
+ * @author lixiaohui
+ */
+public enum HttpProtocol {
+
+    /** 每个连接同时只处理一个请求(或管线化时按顺序处理多个请求) */
+    HTTP_1_1,
+
+    /** 请求以stream形式在少量连接上多路复用, http使用h2c(prior knowledge), https通过ALPN协商 */
+    HTTP_2
+}
@@ -0,0 +1,334 @@
+package http.client;
+
+import java.io.Closeable;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import http.util.LatencyHistogram;
+
+/**
+ * <pre>
+ * 默认的指标实现, 每个服务端注册一个MXBean:
+ * lighttp:type=ServerMetrics,client=&lt;name&gt;,server=&lt;ip:port&gt;
+ * 
+ * 计数使用{@link LongAdder}, 延迟使用{@link LatencyHistogram}(微秒), 记录时无锁且不分配内存.
+ * 不再使用时调用{@link #close()}注销MXBean.
+ * </pre>
+ *
+ * @author lixiaohui
+ */
+public class JmxMetricsCollector implements MetricsCollector, Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(JmxMetricsCollector.class);
+
+    private static final String DOMAIN = "lighttp";
+
+    private final String name;
+
+    private final MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+
+    private final CopyOnWriteArrayList<ObjectName> registered = new CopyOnWriteArrayList<>();
+
+    /**
+     * @param name 客户端名称, 用于区分同一进程中的多个客户端
+     */
+    public JmxMetricsCollector(String name) {
+        this.name = name;
+    }
+
+    @Override
+    public ServerMetrics newServerMetrics(String server) {
+        DefaultServerMetrics metrics = new DefaultServerMetrics();
+        try {
+            ObjectName objectName = new ObjectName(DOMAIN + ":type=ServerMetrics,client=" + ObjectName.quote(name)
+                    + ",server=" + ObjectName.quote(server));
+            if (!mbeanServer.isRegistered(objectName)) {
+                mbeanServer.registerMBean(metrics, objectName);
+                registered.add(objectName);
+            }
+        } catch (Exception e) {
+            logger.warn("Failed to register metrics mbean of {}", server, e);
+        }
+        return metrics;
+    }
+
+    @Override
+    public void close() {
+        for (ObjectName objectName : registered) {
+            try {
+                mbeanServer.unregisterMBean(objectName);
+            } catch (Exception e) {
+                logger.debug("Failed to unregister metrics mbean {}", objectName, e);
+            }
+        }
+        registered.clear();
+    }
+
+    /**
+     * 单个服务端的指标, 时间单位为毫秒
+     */
+    public interface ServerMetricsMXBean {
+
+        long getRequestCount();
+
+        /**
+         * 最近一分钟的指数加权平均请求速率(次/秒)
+         */
+        double getRequestRate();
+
+        long getErrorCount();
+
+        long getTimeoutCount();
+
+        long getAcquireFailureCount();
+
+        double getLatencyMean();
+
+        double getLatencyP50();
+
+        double getLatencyP90();
+
+        double getLatencyP99();
+
+        double getLatencyP999();
+
+        double getLatencyMax();
+
+        int getActiveConnections();
+
+        int getIdleConnections();
+
+        int getPendingAcquires();
+
+        long getBytesRead();
+
+        long getBytesWritten();
+
+        /**
+         * 清空延迟直方图, 用于按时间段观察分位数
+         */
+        void resetLatency();
+    }
+
+    static final class DefaultServerMetrics implements ServerMetrics, ServerMetricsMXBean {
+
+        private final LongAdder requests = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder timeouts = new LongAdder();
+        private final LongAdder acquireFailures = new LongAdder();
+        private final LongAdder opened = new LongAdder();
+        private final LongAdder closed = new LongAdder();
+        private final LongAdder active = new LongAdder();
+        private final LongAdder pending = new LongAdder();
+        private final LongAdder bytesRead = new LongAdder();
+        private final LongAdder bytesWritten = new LongAdder();
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final Ewma rate = new Ewma();
+
+        @Override
+        public void requestSucceeded(long latencyNanos) {
+            requests.increment();
+            rate.mark();
+            latency.record(TimeUnit.NANOSECONDS.toMicros(latencyNanos));
+        }
+
+        @Override
+        public void requestFailed(long latencyNanos, boolean timeout) {
+            requests.increment();
+            rate.mark();
+            errors.increment();
+            if (timeout) {
+                timeouts.increment();
+            }
+            latency.record(TimeUnit.NANOSECONDS.toMicros(latencyNanos));
+        }
+
+        @Override
+        public void acquireStarted() {
+            pending.increment();
+        }
+
+        @Override
+        public void acquireCompleted(boolean success) {
+            pending.decrement();
+            if (!success) {
+                acquireFailures.increment();
+            }
+        }
+
+        @Override
+        public void connectionOpened() {
+            opened.increment();
+        }
+
+        @Override
+        public void connectionClosed() {
+            closed.increment();
+        }
+
+        @Override
+        public void connectionAcquired() {
+            active.increment();
+        }
+
+        @Override
+        public void connectionReleased() {
+            active.decrement();
+        }
+
+        @Override
+        public void bytesRead(long bytes) {
+            bytesRead.add(bytes);
+        }
+
+        @Override
+        public void bytesWritten(long bytes) {
+            bytesWritten.add(bytes);
+        }
+
+        @Override
+        public long getRequestCount() {
+            return requests.sum();
+        }
+
+        @Override
+        public double getRequestRate() {
+            return rate.rate();
+        }
+
+        @Override
+        public long getErrorCount() {
+            return errors.sum();
+        }
+
+        @Override
+        public long getTimeoutCount() {
+            return timeouts.sum();
+        }
+
+        @Override
+        public long getAcquireFailureCount() {
+            return acquireFailures.sum();
+        }
+
+        @Override
+        public double getLatencyMean() {
+            return latency.mean() / 1000;
+        }
+
+        @Override
+        public double getLatencyP50() {
+            return latency.percentile(50) / 1000.0;
+        }
+
+        @Override
+        public double getLatencyP90() {
+            return latency.percentile(90) / 1000.0;
+        }
+
+        @Override
+        public double getLatencyP99() {
+            return latency.percentile(99) / 1000.0;
+        }
+
+        @Override
+        public double getLatencyP999() {
+            return latency.percentile(99.9) / 1000.0;
+        }
+
+        @Override
+        public double getLatencyMax() {
+            return latency.max() / 1000.0;
+        }
+
+        @Override
+        public int getActiveConnections() {
+            return (int) Math.max(0, active.sum());
+        }
+
+        @Override
+        public int getIdleConnections() {
+            return (int) Math.max(0, opened.sum() - closed.sum() - active.sum());
+        }
+
+        @Override
+        public int getPendingAcquires() {
+            return (int) Math.max(0, pending.sum());
+        }
+
+        @Override
+        public long getBytesRead() {
+            return bytesRead.sum();
+        }
+
+        @Override
+        public long getBytesWritten() {
+            return bytesWritten.sum();
+        }
+
+        @Override
+        public void resetLatency() {
+            latency.reset();
+        }
+    }
+
+    /**
+     * 一分钟指数加权移动平均速率, 每5秒衰减一次, 衰减在记录或读取时顺带完成, 不需要定时线程
+     */
+    static final class Ewma {
+
+        private static final long TICK_INTERVAL = TimeUnit.SECONDS.toNanos(5);
+        private static final double ALPHA = 1 - Math.exp(-5 / 60.0);
+
+        private final LongAdder uncounted = new LongAdder();
+        private final AtomicLong lastTick = new AtomicLong(System.nanoTime());
+        private volatile double rate; // 次/纳秒
+        private volatile boolean initialized;
+
+        void mark() {
+            tickIfNecessary();
+            uncounted.increment();
+        }
+
+        /**
+         * 次/秒
+         */
+        double rate() {
+            tickIfNecessary();
+            return rate * TimeUnit.SECONDS.toNanos(1);
+        }
+
+        private void tickIfNecessary() {
+            final long oldTick = lastTick.get();
+            final long now = System.nanoTime();
+            final long age = now - oldTick;
+            if (age > TICK_INTERVAL) {
+                final long newTick = now - age % TICK_INTERVAL;
+                if (lastTick.compareAndSet(oldTick, newTick)) { // 只有一个线程执行衰减
+                    for (long i = age / TICK_INTERVAL; i > 0; i--) {
+                        tick();
+                    }
+                }
+            }
+        }
+
+        private void tick() {
+            double instantRate = (double) uncounted.sumThenReset() / TICK_INTERVAL;
+            if (initialized) {
+                rate += ALPHA * (instantRate - rate);
+            } else {
+                rate = instantRate;
+                initialized = true;
+            }
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package http.client;
+
+import java.net.InetSocketAddress;
+import java.util.List;
+
+/**
+ * <pre>
+ * 客户端负载均衡策略
+ * 
+ * 一个主机名解析出多个地址时, 由负载均衡策略为每个请求选择一个地址, 每个地址有独立的连接池.
+ * 连续失败的地址会被暂时摘除, 不会出现在候选列表中(所有地址都被摘除时除外).
+ * 
+ * 内置策略见{@link LoadBalancers}.
+ * </pre>
+ *
+ * @author lixiaohui
+ */
+public interface LoadBalancer {
+
+    /**
+     * 选择一个地址, 该方法会被多个线程并发调用
+     * 
+     * @param candidates 候选地址, 不为空
+     */
+    Endpoint select(List<? extends Endpoint> candidates);
+
+    /**
+     * 一个已解析的服务端地址
+     */
+    interface Endpoint {
+
+        InetSocketAddress address();
+
+        /**
+         * 已分配到该地址但尚未完成的请求数
+         */
+        int outstandingRequests();
+    }
+}
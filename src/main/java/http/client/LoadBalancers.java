@@ -0,0 +1,107 @@
+package http.client;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import http.client.LoadBalancer.Endpoint;
+
+/**
+ * 内置的负载均衡策略
+ *
+ * @author lixiaohui
+ */
+public final class LoadBalancers {
+
+    private LoadBalancers() {
+    }
+
+    /**
+     * 轮询
+     */
+    public static LoadBalancer roundRobin() {
+        return new RoundRobin();
+    }
+
+    /**
+     * 选择未完成请求数最少的地址, 相同时轮询
+     */
+    public static LoadBalancer leastOutstanding() {
+        return new LeastOutstanding();
+    }
+
+    /**
+     * 随机选择两个地址, 取未完成请求数较少的一个(power of two choices)
+     */
+    public static LoadBalancer powerOfTwoChoices() {
+        return new PowerOfTwoChoices();
+    }
+
+    /**
+     * 由loadBalancer从candidates中选择一个
+     *
+     * @throws IllegalStateException 选出的不是candidates中的某一个(如自定义策略返回了null或新建的Endpoint)
+     */
+    static <T extends Endpoint> T select(LoadBalancer loadBalancer, List<T> candidates) {
+        Endpoint selected = loadBalancer.select(candidates);
+        for (T candidate : candidates) {
+            if (candidate == selected) {
+                return candidate;
+            }
+        }
+        throw new IllegalStateException(
+                "LoadBalancer " + loadBalancer + " selected " + selected + ", which is not one of the candidates");
+    }
+
+    private static final class RoundRobin implements LoadBalancer {
+
+        private final AtomicInteger index = new AtomicInteger();
+
+        @Override
+        public Endpoint select(List<? extends Endpoint> candidates) {
+            return candidates.get((index.getAndIncrement() & Integer.MAX_VALUE) % candidates.size());
+        }
+    }
+
+    private static final class LeastOutstanding implements LoadBalancer {
+
+        private final AtomicInteger index = new AtomicInteger();
+
+        @Override
+        public Endpoint select(List<? extends Endpoint> candidates) {
+            final int size = candidates.size();
+            final int start = (index.getAndIncrement() & Integer.MAX_VALUE) % size;
+            Endpoint selected = null;
+            int min = Integer.MAX_VALUE;
+            for (int i = 0; i < size; i++) {
+                Endpoint endpoint = candidates.get((start + i) % size);
+                int outstanding = endpoint.outstandingRequests();
+                if (outstanding < min) {
+                    min = outstanding;
+                    selected = endpoint;
+                }
+            }
+            return selected;
+        }
+    }
+
+    private static final class PowerOfTwoChoices implements LoadBalancer {
+
+        @Override
+        public Endpoint select(List<? extends Endpoint> candidates) {
+            final int size = candidates.size();
+            if (size == 1) {
+                return candidates.get(0);
+            }
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            int first = random.nextInt(size);
+            int second = random.nextInt(size - 1);
+            if (second >= first) {
+                second++;
+            }
+            Endpoint a = candidates.get(first);
+            Endpoint b = candidates.get(second);
+            return a.outstandingRequests() <= b.outstandingRequests() ? a : b;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package http.client;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <pre>
+ * 堆内存响应缓存, 按字节数加权的LRU淘汰
+ * 
+ * 缓存项的总权重(见{@link CacheEntry#weight()})不超过给定的预算, 超过时淘汰最久未访问的项, 
+ * 单个超过预算的响应不会被缓存. 以{@link ReentrantLock}而不是synchronized同步, 在虚拟线程中竞争时不会占住载体线程.
+ * </pre>
+ *
+ * @author lixiaohui
+ */
+public class MemoryResponseCache implements ResponseCache {
+
+    private final long maxBytes;
+
+    private final LinkedHashMap<String, CacheEntry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long totalBytes;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * @param maxBytes 堆内存预算(字节)
+     */
+    public MemoryResponseCache(long maxBytes) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("maxBytes must be positive");
+        }
+        this.maxBytes = maxBytes;
+    }
+
+    @Override
+    public CacheEntry get(String key) {
+        lock.lock();
+        try {
+            return entries.get(key);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void put(String key, CacheEntry entry) {
+        final int weight = entry.weight();
+        lock.lock();
+        try {
+            if (weight > maxBytes) {
+                remove(key);
+                return;
+            }
+            CacheEntry old = entries.put(key, entry);
+            if (old != null) {
+                totalBytes -= old.weight();
+            }
+            totalBytes += weight;
+            evict();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void remove(String key) {
+        lock.lock();
+        try {
+            CacheEntry old = entries.remove(key);
+            if (old != null) {
+                totalBytes -= old.weight();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 当前缓存项的总权重
+     */
+    public long size() {
+        lock.lock();
+        try {
+            return totalBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<String, CacheEntry>> it = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && it.hasNext()) {
+            totalBytes -= it.next().getValue().weight();
+            it.remove();
+        }
+    }
+}
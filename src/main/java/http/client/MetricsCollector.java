@@ -0,0 +1,69 @@
+package http.client;
+
+/**
+ * <pre>
+ * 客户端指标采集SPI
+ * 
+ * 每个服务端(HTTP/1.1按解析后的IP:端口, HTTP/2按主机名:端口)首次被访问时调用一次{@link #newServerMetrics(String)}, 
+ * 之后请求路径上只调用返回的{@link ServerMetrics}, 实现应保证这些方法无锁, 不分配内存, 且不会抛出异常.
+ * 
+ * 默认实现见{@link JmxMetricsCollector}, 通过{@link AsyncHttpClientConfig#setMetricsCollector(MetricsCollector)}开启.
+ * </pre>
+ *
+ * @author lixiaohui
+ */
+public interface MetricsCollector {
+
+    /**
+     * @param server 服务端标识, 如"10.0.0.1:80"
+     */
+    ServerMetrics newServerMetrics(String server);
+
+    /**
+     * 单个服务端的指标, 被多个线程并发调用
+     */
+    interface ServerMetrics {
+
+        /**
+         * 请求成功完成
+         * 
+         * @param latencyNanos 从调用execute到完成的耗时
+         */
+        void requestSucceeded(long latencyNanos);
+
+        /**
+         * 请求失败
+         * 
+         * @param timeout 是否因超时失败
+         */
+        void requestFailed(long latencyNanos, boolean timeout);
+
+        /**
+         * 开始从连接池获取连接
+         */
+        void acquireStarted();
+
+        /**
+         * 获取连接结束
+         */
+        void acquireCompleted(boolean success);
+
+        void connectionOpened();
+
+        void connectionClosed();
+
+        /**
+         * 连接从连接池借出, 只在HTTP/1.1下调用
+         */
+        void connectionAcquired();
+
+        /**
+         * 连接归还到连接池, 只在HTTP/1.1下调用
+         */
+        void connectionReleased();
+
+        void bytesRead(long bytes);
+
+        void bytesWritten(long bytes);
+    }
+}
@@ -0,0 +1,93 @@
+package http.client;
+
+import java.io.Closeable;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import http.HttpHeaders;
+import http.HttpResponse;
+import http.HttpStatus;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.util.ResourceLeakDetector;
+import io.netty.util.ResourceLeakDetectorFactory;
+import io.netty.util.ResourceLeakTracker;
+
+/**
+ * <pre>
+ * 响应体直接引用IO层池化{@link ByteBuf}的响应, 避免将响应体再拷贝一次到堆内存
+ * 
+ * {@link #getBody()}始终返回null, 响应体需通过{@link #bodyBuffer()}或{@link #bodyStream()}读取.
+ * 使用完毕后必须调用{@link #close()}(或使用try-with-resources)将缓冲区归还内存池,
+ * 未关闭就被回收的响应会由Netty的泄漏检测报告(-Dio.netty.leakDetection.level=advanced).
+ * 
+ * 通过{@link AsyncHttpClientConfig#setPooledResponseBody(boolean)}开启.
+ * </pre>
+ *
+ * @author lixiaohui
+ */
+public final class PooledHttpResponse extends HttpResponse implements Closeable {
+
+    private static final ResourceLeakDetector<PooledHttpResponse> leakDetector = ResourceLeakDetectorFactory
+            .instance().newResourceLeakDetector(PooledHttpResponse.class);
+
+    private final ByteBuf content;
+    private final ResourceLeakTracker<PooledHttpResponse> leak;
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    /**
+     * @param content 响应体, 所有权转移给该响应
+     */
+    PooledHttpResponse(HttpStatus status, HttpHeaders headers, ByteBuf content) {
+        super(status, null, headers);
+        this.content = content;
+        this.leak = leakDetector.track(this);
+    }
+
+    /**
+     * 响应体长度
+     */
+    public int bodyLength() {
+        ensureOpen();
+        return content.readableBytes();
+    }
+
+    /**
+     * 响应体的只读视图, 不拷贝数据, 只在{@link #close()}之前有效
+     */
+    public ByteBuffer bodyBuffer() {
+        ensureOpen();
+        return content.nioBuffer().asReadOnlyBuffer();
+    }
+
+    /**
+     * 以流的方式读取响应体, 不拷贝数据, 只在{@link #close()}之前有效
+     */
+    public InputStream bodyStream() {
+        ensureOpen();
+        return new ByteBufInputStream(content.duplicate(), false);
+    }
+
+    /**
+     * 释放响应体占用的缓冲区, 重复调用无副作用
+     */
+    @Override
+    public void close() {
+        if (closed.compareAndSet(false, true)) {
+            content.release();
+            if (leak != null) {
+                leak.close(this);
+            }
+        }
+    }
+
+    private void ensureOpen() {
+        if (closed.get()) {
+            throw new IllegalStateException("The response has been closed");
+        }
+        if (leak != null) {
+            leak.record();
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package http.client;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import http.RequestBody;
+import http.RequestBody.ChunkProducer;
+import http.RequestBody.ChunkedBody;
+import http.RequestBody.FileBody;
+import http.RequestBody.StreamBody;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.DefaultFileRegion;
+import io.netty.handler.codec.http.HttpChunkedInput;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.handler.stream.ChunkedInput;
+import io.netty.handler.stream.ChunkedNioFile;
+import io.netty.handler.stream.ChunkedStream;
+import io.netty.handler.stream.ChunkedWriteHandler;
+
+/**
+ * <pre>
+ * 将{@link RequestBody}转换为Netty可写出的消息
+ * 
+ * 文件在明文连接上以{@link DefaultFileRegion}(sendfile)写出, 其它情况以{@link HttpChunkedInput}写出,
+ * 由{@link ChunkedWriteHandler}在连接可写时逐块读取, 从而实现背压.
+ * HTTP/2直接使用{@link #chunks(RequestBody)}读取数据块, 按各stream的流控窗口写出DATA帧.
+ * </pre>
+ *
+ * @author lixiaohui
+ */
+final class RequestBodies {
+
+    static final int CHUNK_SIZE = 8192;
+
+    private RequestBodies() {
+    }
+
+    /**
+     * @param zeroCopy 是否可以使用sendfile(连接上没有加密等需要改写字节的处理器)
+     * @param out      要在请求头之后依次写出的消息
+     */
+    static void encode(RequestBody body, boolean zeroCopy, List<Object> out) throws IOException {
+        if (zeroCopy && body instanceof FileBody) {
+            FileBody fileBody = (FileBody) body;
+            out.add(fileBody.getFile() != null
+                    ? new DefaultFileRegion(fileBody.getFile(), fileBody.getPosition(), fileBody.contentLength())
+                    : new DefaultFileRegion(fileBody.getChannel(), fileBody.getPosition(), fileBody.contentLength()));
+            out.add(LastHttpContent.EMPTY_LAST_CONTENT);
+        } else {
+            out.add(new HttpChunkedInput(chunks(body)));
+        }
+    }
+
+    /**
+     * 请求体的原始数据块, 不含HTTP/1.1的chunked编码
+     */
+    static ChunkedInput<ByteBuf> chunks(RequestBody body) throws IOException {
+        if (body instanceof FileBody) {
+            FileBody fileBody = (FileBody) body;
+            FileChannel channel = fileBody.getFile() != null
+                    ? FileChannel.open(fileBody.getFile().toPath(), StandardOpenOption.READ)
+                    : fileBody.getChannel();
+            return new ChunkedNioFile(channel, fileBody.getPosition(), fileBody.contentLength(), CHUNK_SIZE);
+        } else if (body instanceof StreamBody) {
+            return new ChunkedStream(((StreamBody) body).getInputStream(), CHUNK_SIZE);
+        } else if (body instanceof ChunkedBody) {
+            return new ProducerChunkedInput(((ChunkedBody) body).getProducer());
+        } else {
+            throw new IllegalArgumentException("Unsupported request body: " + body);
+        }
+    }
+
+    /**
+     * 连接上是否可以使用sendfile
+     */
+    static boolean isZeroCopyCapable(ChannelHandlerContext ctx) {
+        return ctx.pipeline().get("SSL_HANDLER") == null;
+    }
+
+    /**
+     * 将{@link ChunkProducer}适配为{@link ChunkedInput}, 预读一块以便准确判断是否已结束
+     */
+    private static final class ProducerChunkedInput implements ChunkedInput<ByteBuf> {
+
+        private final ChunkProducer producer;
+        private ByteBuffer next;
+        private boolean end;
+        private long progress;
+
+        ProducerChunkedInput(ChunkProducer producer) {
+            this.producer = producer;
+        }
+
+        @Override
+        public boolean isEndOfInput() throws Exception {
+            if (next == null && !end) {
+                next = producer.nextChunk();
+                end = next == null;
+            }
+            return end;
+        }
+
+        @Override
+        public void close() throws Exception {
+            end = true;
+            next = null;
+        }
+
+        @Deprecated
+        @Override
+        public ByteBuf readChunk(ChannelHandlerContext ctx) throws Exception {
+            return readChunk(ctx.alloc());
+        }
+
+        @Override
+        public ByteBuf readChunk(ByteBufAllocator allocator) throws Exception {
+            if (isEndOfInput()) {
+                return null;
+            }
+            ByteBuffer chunk = next;
+            next = null;
+            progress += chunk.remaining();
+            return Unpooled.wrappedBuffer(chunk);
+        }
+
+        @Override
+        public long length() {
+            return -1;
+        }
+
+        @Override
+        public long progress() {
+            return progress;
+        }
+    }
+}
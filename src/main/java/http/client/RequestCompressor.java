@@ -0,0 +1,85 @@
+package http.client;
+
+import java.io.IOException;
+import java.util.zip.GZIPOutputStream;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufOutputStream;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpRequest;
+
+/**
+ * <pre>
+ * 请求的内容编码处理
+ * 
+ * 为请求添加Accept-Encoding(调用者未指定时), 响应由解压处理器在聚合前逐块解压; 
+ * 请求体长度不小于阈值时以gzip压缩, 只压缩已在内存中的请求体, 流式请求体原样发送.
+ * </pre>
+ *
+ * @author lixiaohui
+ */
+final class RequestCompressor extends ChannelOutboundHandlerAdapter {
+
+    static final String ACCEPT_ENCODING = HttpHeaderValues.GZIP + ", " + HttpHeaderValues.DEFLATE;
+
+    /** 请求体压缩阈值(字节), 小于0表示不压缩 */
+    private final int threshold;
+
+    RequestCompressor(int threshold) {
+        this.threshold = threshold;
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        if (msg instanceof HttpRequest) {
+            HttpHeaders headers = ((HttpRequest) msg).headers();
+            if (!headers.contains(HttpHeaderNames.ACCEPT_ENCODING)) {
+                headers.set(HttpHeaderNames.ACCEPT_ENCODING, ACCEPT_ENCODING);
+            }
+            if (msg instanceof FullHttpRequest && shouldCompress((FullHttpRequest) msg)) {
+                msg = compress(ctx, (FullHttpRequest) msg);
+            }
+        }
+        ctx.write(msg, promise);
+    }
+
+    private boolean shouldCompress(FullHttpRequest request) {
+        return threshold >= 0 && request.content().readableBytes() >= threshold
+                && !request.headers().contains(HttpHeaderNames.CONTENT_ENCODING);
+    }
+
+    private static FullHttpRequest compress(ChannelHandlerContext ctx, FullHttpRequest request) throws Exception {
+        ByteBuf compressed = gzip(ctx.alloc(), request.content());
+        FullHttpRequest result = request.replace(compressed);
+        request.release();
+        result.headers().set(HttpHeaderNames.CONTENT_ENCODING, HttpHeaderValues.GZIP);
+        result.headers().set(HttpHeaderNames.CONTENT_LENGTH, compressed.readableBytes());
+        return result;
+    }
+
+    /**
+     * 以gzip压缩content的可读字节, content的读索引会移到末尾
+     */
+    static ByteBuf gzip(ByteBufAllocator alloc, ByteBuf content) throws IOException {
+        ByteBuf compressed = alloc.buffer(content.readableBytes() / 2 + 64);
+        boolean success = false;
+        try {
+            try (GZIPOutputStream out = new GZIPOutputStream(new ByteBufOutputStream(compressed))) {
+                content.readBytes(out, content.readableBytes());
+            }
+            success = true;
+        } finally {
+            if (!success) {
+                compressed.release();
+            }
+        }
+        return compressed;
+    }
+}
@@ -0,0 +1,256 @@
+package http.client;
+
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import http.HttpHeaders;
+import http.HttpHeaders.HttpHeaderNames;
+import http.HttpHeaders.HttpHeaderValues;
+import http.HttpMethod;
+import http.HttpRequest;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.HttpRequestEncoder;
+
+/**
+ * <pre>
+ * HTTP/1.1请求编码器
+ *
+ * 请求体已在内存中的{@link HttpRequest}直接编码到一个池化的{@link ByteBuf}, 不再先转换为Netty的请求对象;
+ * 请求方法, 协议版本以及Connection, User-Agent等固定的头使用预先编码好的字节.
+ * 带流式请求体的请求仍由{@link AsyncHttpClient.ProtocolAdapter}转换为Netty的请求头和数据块, 交给父类编码.
+ * 请求行和请求头原样写出, 发送前需经{@link #validate(HttpRequest)}校验.
+ * </pre>
+ *
+ * @author lixiaohui
+ */
+final class RequestEncoder extends HttpRequestEncoder {
+
+    private static final byte[][] METHODS = new byte[HttpMethod.values().length][];
+    static {
+        for (HttpMethod method : HttpMethod.values()) {
+            METHODS[method.ordinal()] = ascii(method.name() + " ");
+        }
+    }
+
+    private static final byte[] VERSION_CRLF = ascii(" HTTP/1.1\r\n");
+    private static final byte[] CONNECTION_KEEP_ALIVE = ascii(
+            HttpHeaderNames.CONNECTION + ": " + HttpHeaderValues.KEEP_ALIVE + "\r\n");
+    private static final byte[] USER_AGENT = ascii(
+            HttpHeaderNames.USER_AGENT + ": " + AsyncHttpClient.ProtocolAdapter.USER_AGENT + "\r\n");
+    private static final byte[] ACCEPT_ENCODING = ascii(
+            HttpHeaderNames.ACCEPT_ENCODING + ": " + RequestCompressor.ACCEPT_ENCODING + "\r\n");
+    private static final byte[] CONTENT_ENCODING_GZIP = ascii(
+            HttpHeaderNames.CONTENT_ENCODING + ": " + HttpHeaderValues.GZIP + "\r\n");
+    private static final byte[] HOST = ascii(HttpHeaderNames.HOST + ": ");
+    private static final byte[] CONTENT_LENGTH = ascii(HttpHeaderNames.CONTENT_LENGTH + ": ");
+    private static final byte[] COLON_SPACE = ascii(": ");
+    private static final byte[] CRLF = ascii("\r\n");
+
+    /** 不超过该长度的请求体拷贝到请求头所在的缓冲区, 更长的请求体直接包装, 以gather write写出 */
+    private static final int COPY_BODY_THRESHOLD = 4096;
+
+    /** 是否开启内容编码 */
+    private final boolean compression;
+
+    /** 请求体压缩阈值(字节), 小于0表示不压缩 */
+    private final int compressionThreshold;
+
+    RequestEncoder(boolean compression, int compressionThreshold) {
+        this.compression = compression;
+        this.compressionThreshold = compressionThreshold;
+    }
+
+    @Override
+    public boolean acceptOutboundMessage(Object msg) throws Exception {
+        return msg instanceof HttpRequest || super.acceptOutboundMessage(msg);
+    }
+
+    @Override
+    protected void encode(ChannelHandlerContext ctx, Object msg, List<Object> out) throws Exception {
+        if (msg instanceof HttpRequest) {
+            encode(ctx, (HttpRequest) msg, out);
+        } else {
+            super.encode(ctx, msg, out);
+        }
+    }
+
+    private void encode(ChannelHandlerContext ctx, HttpRequest request, List<Object> out) throws Exception {
+        final URI uri = request.getUri();
+        final String target = requestTarget(uri);
+        final HttpHeaders headers = request.getHeaders();
+        ByteBuf body = request.getBody() == null ? null : Unpooled.wrappedBuffer(request.getBody());
+        boolean gzip = false;
+        if (body != null && compression && compressionThreshold >= 0 && body.readableBytes() >= compressionThreshold
+                && !headers.contains(HttpHeaderNames.CONTENT_ENCODING)) {
+            ByteBuf compressed = RequestCompressor.gzip(ctx.alloc(), body);
+            body.release();
+            body = compressed;
+            gzip = true;
+        }
+
+        final boolean copyBody = body != null && body.readableBytes() <= COPY_BODY_THRESHOLD;
+        ByteBuf buf = ctx.alloc().ioBuffer(estimateSize(request, target) + (copyBody ? body.readableBytes() : 0));
+        try {
+            buf.writeBytes(METHODS[request.getMethod().ordinal()]);
+            ByteBufUtil.writeAscii(buf, target);
+            buf.writeBytes(VERSION_CRLF);
+
+            boolean hasHost = false;
+            boolean hasAcceptEncoding = false;
+            for (int i = 0; i < headers.size(); i++) {
+                String name = headers.name(i);
+                // 以下头由编码器统一设置, 忽略调用者指定的值
+                if (isHeader(name, HttpHeaderNames.CONNECTION) || isHeader(name, HttpHeaderNames.USER_AGENT)
+                        || (body != null && isHeader(name, HttpHeaderNames.CONTENT_LENGTH))) {
+                    continue;
+                }
+                hasHost |= isHeader(name, HttpHeaderNames.HOST);
+                hasAcceptEncoding |= isHeader(name, HttpHeaderNames.ACCEPT_ENCODING);
+                ByteBufUtil.writeAscii(buf, name);
+                buf.writeBytes(COLON_SPACE);
+                ByteBufUtil.writeAscii(buf, headers.value(i));
+                buf.writeBytes(CRLF);
+            }
+            if (!hasHost) {
+                buf.writeBytes(HOST);
+                ByteBufUtil.writeAscii(buf, uri.getHost());
+                if (uri.getPort() > 0) {
+                    buf.writeByte(':');
+                    ByteBufUtil.writeAscii(buf, Integer.toString(uri.getPort()));
+                }
+                buf.writeBytes(CRLF);
+            }
+            buf.writeBytes(CONNECTION_KEEP_ALIVE);
+            buf.writeBytes(USER_AGENT);
+            if (compression && !hasAcceptEncoding) {
+                buf.writeBytes(ACCEPT_ENCODING);
+            }
+            if (body != null) {
+                if (gzip) {
+                    buf.writeBytes(CONTENT_ENCODING_GZIP);
+                }
+                buf.writeBytes(CONTENT_LENGTH);
+                ByteBufUtil.writeAscii(buf, Integer.toString(body.readableBytes()));
+                buf.writeBytes(CRLF);
+            }
+            buf.writeBytes(CRLF);
+
+            if (copyBody) {
+                buf.writeBytes(body);
+                body.release();
+                body = null;
+            }
+            out.add(buf);
+            buf = null;
+            if (body != null) {
+                out.add(body);
+                body = null;
+            }
+        } finally {
+            if (buf != null) {
+                buf.release();
+            }
+            if (body != null) {
+                body.release();
+            }
+        }
+    }
+
+    /**
+     * <pre>
+     * 校验将原样写出的请求目标和请求头, 防止调用者传入的字符串拆分请求(request splitting):
+     * 头名字必须是token(RFC 7230), 头的值不能含有CR, LF和NUL, 请求目标和主机名只能由可见的ASCII字符组成,
+     * 主机名不能为空
+     * </pre>
+     *
+     * @throws IllegalArgumentException 校验失败
+     */
+    static void validate(HttpRequest request) {
+        final URI uri = request.getUri();
+        validateVisible("request target", uri.getRawPath());
+        validateVisible("request target", uri.getRawQuery());
+        final String host = uri.getHost();
+        if (host == null || host.isEmpty()) { // 如"http:///path"或主机名含有URI不允许的字符
+            throw new IllegalArgumentException("Missing host in request uri: " + uri);
+        }
+        validateVisible("host", host);
+        final HttpHeaders headers = request.getHeaders();
+        for (int i = 0; i < headers.size(); i++) {
+            String name = headers.name(i);
+            if (name.isEmpty()) {
+                throw new IllegalArgumentException("Empty header name");
+            }
+            for (int j = 0; j < name.length(); j++) {
+                if (!isTokenChar(name.charAt(j))) {
+                    throw new IllegalArgumentException("Illegal character in header name: " + name);
+                }
+            }
+            String value = headers.value(i);
+            for (int j = 0; j < value.length(); j++) {
+                char c = value.charAt(j);
+                if (c == '\r' || c == '\n' || c == '\0') {
+                    throw new IllegalArgumentException("Illegal character in value of header " + name);
+                }
+            }
+        }
+    }
+
+    private static void validateVisible(String what, String s) {
+        if (s == null) {
+            return;
+        }
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c <= ' ' || c >= 0x7f) {
+                throw new IllegalArgumentException("Illegal character in " + what + ": " + s);
+            }
+        }
+    }
+
+    /**
+     * RFC 7230 tchar: "!" / "#" / "$" / "%" / "&" / "'" / "*" / "+" / "-" / "." / "^" / "_" / "`" / "|" / "~" / DIGIT / ALPHA
+     */
+    private static boolean isTokenChar(char c) {
+        if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')) {
+            return true;
+        }
+        return "!#$%&'*+-.^_`|~".indexOf(c) >= 0;
+    }
+
+    /**
+     * 请求行中的目标: 原样(未解码)的路径和查询串
+     */
+    static String requestTarget(URI uri) {
+        String path = uri.getRawPath();
+        String query = uri.getRawQuery();
+        if (path == null || path.isEmpty()) {
+            path = "/";
+        }
+        return query == null ? path : path + "?" + query;
+    }
+
+    private static int estimateSize(HttpRequest request, String target) {
+        int size = 128 + target.length() + request.getUri().getHost().length();
+        HttpHeaders headers = request.getHeaders();
+        for (int i = 0; i < headers.size(); i++) {
+            size += headers.name(i).length() + headers.value(i).length() + 4;
+        }
+        return size;
+    }
+
+    /**
+     * name是否为已知的头名字known, known是{@link HttpHeaderNames}中的常量.
+     * {@link HttpHeaders}已将已知的名字统一保存为这些常量, 比较引用即可
+     */
+    private static boolean isHeader(String name, String known) {
+        return name == known;
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+}
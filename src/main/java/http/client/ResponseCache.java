@@ -0,0 +1,24 @@
+package http.client;
+
+/**
+ * <pre>
+ * HTTP响应缓存存储
+ * 
+ * 只负责存取, 缓存策略(新鲜度, 重新验证等, 见RFC 7234)由客户端处理. 实现必须是线程安全的, 
+ * 且不能阻塞调用线程太久, 命中时客户端会在调用线程中直接完成future.
+ * </pre>
+ *
+ * @author lixiaohui
+ */
+public interface ResponseCache {
+
+    /**
+     * @param key 缓存键, 由请求方法和URI组成, 带有Vary的响应的键还包含Vary列出的请求头的值
+     * @return 缓存项, 不存在时为null
+     */
+    CacheEntry get(String key);
+
+    void put(String key, CacheEntry entry);
+
+    void remove(String key);
+}
@@ -0,0 +1,634 @@
+package http.client;
+
+import java.util.Arrays;
+import java.util.List;
+
+import http.HttpHeaders;
+import http.HttpHeaders.HttpHeaderNames;
+import http.HttpHeaders.HttpHeaderValues;
+import http.HttpResponse;
+import http.HttpStatus;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.handler.codec.TooLongFrameException;
+import io.netty.handler.codec.compression.ZlibCodecFactory;
+import io.netty.handler.codec.compression.ZlibWrapper;
+import io.netty.util.ByteProcessor;
+import io.netty.util.CharsetUtil;
+
+/**
+ * <pre>
+ * HTTP/1.1响应解码器
+ *
+ * 增量地从{@link ByteBuf}中解析状态行, 头和响应体(content-length, chunked或读到连接关闭),
+ * 一次性生成{@link HttpResponse}, 不再经过Netty的响应对象, 聚合器和协议转换:
+ * 状态码使用{@link HttpStatus}的标准常量, 已知的头名字直接识别为{@link HttpHeaderNames}中的常量,
+ * 长度已知的响应体直接拷贝到最终的数组(或以池化缓冲区承载, 见{@link PooledHttpResponse}).
+ *
+ * 以流式方式接收的响应不聚合, 头和各块数据直接交给{@link AsyncHttpClient.ResponseHandler}.
+ * 开启内容编码时按Content-Encoding逐块解压响应体.
+ * </pre>
+ *
+ * @author lixiaohui
+ */
+final class ResponseDecoder extends ByteToMessageDecoder {
+
+    /** 状态行, 头和chunk长度行的最大长度 */
+    private static final int MAX_LINE_LENGTH = 8192;
+
+    /** 聚合响应体时首次分配的最大长度, 之后随数据到达而扩容, 不预先按服务端声明的Content-Length分配 */
+    private static final int MAX_INITIAL_CAPACITY = 64 * 1024;
+
+    private static final byte[] EMPTY_BODY = new byte[0];
+
+    /** 已知头名字的开放寻址表, 按小写字节的hash存放 */
+    private static final String[] KNOWN_NAMES;
+    static {
+        List<String> names = HttpHeaders.knownNames();
+        KNOWN_NAMES = new String[Integer.highestOneBit(names.size() * 4)];
+        final int mask = KNOWN_NAMES.length - 1;
+        for (String name : names) {
+            int h = 0;
+            for (int i = 0; i < name.length(); i++) {
+                h = 31 * h + name.charAt(i);
+            }
+            int i = h & mask;
+            while (KNOWN_NAMES[i] != null) {
+                i = (i + 1) & mask;
+            }
+            KNOWN_NAMES[i] = name;
+        }
+    }
+
+    private enum State {
+        STATUS_LINE, HEADERS, FIXED_CONTENT, CHUNK_SIZE, CHUNK_CONTENT, CHUNK_DELIMITER, TRAILERS,
+        CONTENT_UNTIL_CLOSE, BAD_MESSAGE
+    }
+
+    private final AsyncHttpClient.ResponseHandler responseHandler;
+
+    /** 是否以池化缓冲区承载响应体 */
+    private final boolean pooledBody;
+
+    /** 是否按Content-Encoding解压响应体 */
+    private final boolean decompression;
+
+    /** 聚合的响应体(解压后)的最大长度, 超过时以{@link TooLongFrameException}失败 */
+    private final int maxContentLength;
+
+    private State state = State.STATUS_LINE;
+
+    // 正在解码的响应
+    private HttpStatus status;
+    private HttpHeaders headers;
+    /** 尚未加入headers的头, 其值可能还有折行的后续部分 */
+    private String pendingName;
+    private String pendingValue;
+    private boolean streaming;
+    private boolean chunked;
+    /** 定长响应体或当前chunk剩余的字节数 */
+    private long remaining;
+    /** 响应头中的Content-Length, 未知或chunked时为-1 */
+    private long contentLength;
+
+    /** 长度已知且不解压时, 响应体直接拷贝到该数组, 数组随数据到达扩容到Content-Length */
+    private byte[] array;
+    private int arrayIndex;
+    /** 已聚合的响应体长度 */
+    private long contentReceived;
+    /** 其它情况下聚合响应体的缓冲区 */
+    private ByteBuf content;
+    /** 解压响应体, 不需要解压时为null */
+    private EmbeddedChannel decompressor;
+
+    ResponseDecoder(AsyncHttpClient.ResponseHandler responseHandler, boolean pooledBody, boolean decompression,
+            int maxContentLength) {
+        this.responseHandler = responseHandler;
+        this.pooledBody = pooledBody;
+        this.decompression = decompression;
+        this.maxContentLength = maxContentLength;
+    }
+
+    /**
+     * 每次调用最多输出一个响应, 保证前一个响应已交给{@link AsyncHttpClient.ResponseHandler}之后,
+     * 才开始解码下一个响应(下一个响应是否流式接收取决于前一个请求是否已完成)
+     */
+    @Override
+    protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) throws Exception {
+        try {
+            for (;;) {
+                switch (state) {
+                case STATUS_LINE: {
+                    int eol = findEndOfLine(in);
+                    if (eol < 0) {
+                        return;
+                    }
+                    if (lineLength(in, eol) > 0) { // 忽略响应之间多余的空行
+                        parseStatusLine(in, in.readerIndex(), lineLength(in, eol));
+                        headers = new HttpHeaders();
+                        state = State.HEADERS;
+                    }
+                    in.readerIndex(eol + 1);
+                    break;
+                }
+                case HEADERS:
+                case TRAILERS: {
+                    int eol = findEndOfLine(in);
+                    if (eol < 0) {
+                        return;
+                    }
+                    int length = lineLength(in, eol);
+                    if (length > 0) {
+                        if (state == State.HEADERS || !streaming) { // 流式响应的头已交出, 忽略trailer
+                            parseHeaderLine(in, in.readerIndex(), length);
+                        }
+                        in.readerIndex(eol + 1);
+                        break;
+                    }
+                    in.readerIndex(eol + 1);
+                    flushPendingHeader();
+                    if (state == State.TRAILERS || !headersComplete(ctx)) {
+                        complete(ctx, out);
+                        return;
+                    }
+                    break;
+                }
+                case FIXED_CONTENT: {
+                    if (!in.isReadable()) {
+                        return;
+                    }
+                    if (array == null && content == null && decompressor == null && !streaming && pooledBody
+                            && in.readableBytes() >= remaining) { // 响应体已完整到达, 直接引用而不拷贝
+                        content = in.readRetainedSlice((int) remaining);
+                        remaining = 0;
+                    } else {
+                        int length = (int) Math.min(remaining, in.readableBytes());
+                        onContent(ctx, in.readSlice(length));
+                        remaining -= length;
+                    }
+                    if (remaining == 0) {
+                        complete(ctx, out);
+                        return;
+                    }
+                    break;
+                }
+                case CHUNK_SIZE: {
+                    int eol = findEndOfLine(in);
+                    if (eol < 0) {
+                        return;
+                    }
+                    remaining = parseChunkSize(in, in.readerIndex(), lineLength(in, eol));
+                    in.readerIndex(eol + 1);
+                    state = remaining == 0 ? State.TRAILERS : State.CHUNK_CONTENT;
+                    break;
+                }
+                case CHUNK_CONTENT: {
+                    if (!in.isReadable()) {
+                        return;
+                    }
+                    int length = (int) Math.min(remaining, in.readableBytes());
+                    onContent(ctx, in.readSlice(length));
+                    remaining -= length;
+                    if (remaining == 0) {
+                        state = State.CHUNK_DELIMITER;
+                    }
+                    break;
+                }
+                case CHUNK_DELIMITER: {
+                    int eol = findEndOfLine(in);
+                    if (eol < 0) {
+                        return;
+                    }
+                    if (lineLength(in, eol) != 0) {
+                        throw new CorruptedFrameException("Missing CRLF after chunk data");
+                    }
+                    in.readerIndex(eol + 1);
+                    state = State.CHUNK_SIZE;
+                    break;
+                }
+                case CONTENT_UNTIL_CLOSE: {
+                    if (in.isReadable()) {
+                        onContent(ctx, in.readSlice(in.readableBytes()));
+                    }
+                    return;
+                }
+                case BAD_MESSAGE: {
+                    in.skipBytes(in.readableBytes());
+                    return;
+                }
+                default:
+                    throw new IllegalStateException("Unexpected state: " + state);
+                }
+            }
+        } catch (Exception e) {
+            // 无法再确定后续响应的边界, 丢弃剩余数据并关闭连接, 未完成的请求由ResponseHandler在连接关闭时失败
+            state = State.BAD_MESSAGE;
+            reset();
+            in.skipBytes(in.readableBytes());
+            ctx.close();
+            throw e;
+        }
+    }
+
+    /**
+     * 连接关闭, 未指定长度的响应体至此结束
+     */
+    @Override
+    protected void decodeLast(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) throws Exception {
+        if (state == State.CONTENT_UNTIL_CLOSE) {
+            complete(ctx, out);
+        }
+        reset();
+    }
+
+    @Override
+    protected void handlerRemoved0(ChannelHandlerContext ctx) throws Exception {
+        reset();
+    }
+
+    private void parseStatusLine(ByteBuf in, int start, int length) {
+        int end = start + length;
+        int codeStart = in.indexOf(start, end, (byte) ' ');
+        if (codeStart < 0 || end - codeStart < 4) {
+            throw new CorruptedFrameException("Invalid status line: " + in.toString(start, length, CharsetUtil.US_ASCII));
+        }
+        codeStart++;
+        int code = 0;
+        for (int i = codeStart; i < codeStart + 3; i++) {
+            int digit = in.getByte(i) - '0';
+            if (digit < 0 || digit > 9) {
+                throw new CorruptedFrameException(
+                        "Invalid status line: " + in.toString(start, length, CharsetUtil.US_ASCII));
+            }
+            code = code * 10 + digit;
+        }
+        int reasonStart = Math.min(codeStart + 4, end);
+        HttpStatus canonical = HttpStatus.valueOf(code);
+        if (canonical != null && equalsAscii(in, reasonStart, end - reasonStart, canonical.getReasonPhrase())) {
+            status = canonical;
+        } else {
+            status = new HttpStatus(code, in.toString(reasonStart, end - reasonStart, CharsetUtil.ISO_8859_1));
+        }
+    }
+
+    private void parseHeaderLine(ByteBuf in, int start, int length) {
+        int end = start + length;
+        byte first = in.getByte(start);
+        if (first == ' ' || first == '\t') { // 折行, 是上一个头的值的后续部分
+            if (pendingName != null) {
+                String more = value(in, start, end);
+                pendingValue = pendingValue.isEmpty() ? more : pendingValue + ' ' + more;
+            }
+            return;
+        }
+        flushPendingHeader();
+        int colon = in.indexOf(start, end, (byte) ':');
+        if (colon <= start) {
+            throw new CorruptedFrameException("Invalid header: " + in.toString(start, length, CharsetUtil.US_ASCII));
+        }
+        int nameEnd = colon;
+        while (nameEnd > start && isWhitespace(in.getByte(nameEnd - 1))) {
+            nameEnd--;
+        }
+        pendingName = name(in, start, nameEnd - start);
+        pendingValue = value(in, colon + 1, end);
+    }
+
+    private void flushPendingHeader() {
+        if (pendingName != null) {
+            headers.add(pendingName, pendingValue);
+            pendingName = null;
+            pendingValue = null;
+        }
+    }
+
+    /**
+     * 头已解析完, 确定响应体的长度和接收方式
+     *
+     * @return 是否有响应体
+     */
+    private boolean headersComplete(ChannelHandlerContext ctx) {
+        final int code = status.getCode();
+        if (code >= 100 && code < 200 && code != 101) { // 1xx临时响应, 之后还会有最终响应
+            status = null;
+            headers = null;
+            state = State.STATUS_LINE;
+            return true;
+        }
+        streaming = responseHandler.isNextStreaming();
+        final boolean empty = code == 101 || code == 204 || code == 304 || responseHandler.isNextHead();
+
+        long contentLength = -1;
+        String transferEncoding = headers.getFirst(HttpHeaderNames.TRANSFER_ENCODING);
+        chunked = !empty && transferEncoding != null && containsIgnoreCase(transferEncoding, HttpHeaderValues.CHUNKED);
+        if (!chunked) {
+            String value = headers.getFirst(HttpHeaderNames.CONTENT_LENGTH);
+            if (value != null) {
+                try {
+                    contentLength = Long.parseLong(value.trim());
+                } catch (NumberFormatException e) {
+                    throw new CorruptedFrameException("Invalid content-length: " + value);
+                }
+                if (contentLength < 0) {
+                    throw new CorruptedFrameException("Invalid content-length: " + value);
+                }
+            }
+        }
+        if (!empty && decompression) {
+            decompressor = newDecompressor(ctx, headers.getFirst(HttpHeaderNames.CONTENT_ENCODING));
+            if (decompressor != null) { // 与HttpContentDecompressor一致, 解压后的响应不再有编码和原长度
+                headers.remove(HttpHeaderNames.CONTENT_ENCODING);
+                headers.remove(HttpHeaderNames.CONTENT_LENGTH);
+            }
+        }
+
+        if (streaming) {
+            responseHandler.streamHeaders(ctx, status, headers, decompressor == null ? contentLength : -1L);
+        } else if (!empty && !chunked && contentLength >= 0) {
+            if (decompressor == null && contentLength > maxContentLength) {
+                throw new TooLongFrameException("Response body too large: " + contentLength);
+            }
+            if (!pooledBody && decompressor == null) {
+                array = contentLength == 0 ? EMPTY_BODY : new byte[(int) Math.min(contentLength, MAX_INITIAL_CAPACITY)];
+            }
+        }
+
+        this.contentLength = chunked ? -1 : contentLength;
+        if (empty || contentLength == 0) {
+            return false;
+        }
+        if (chunked) {
+            state = State.CHUNK_SIZE;
+        } else if (contentLength > 0) {
+            remaining = contentLength;
+            state = State.FIXED_CONTENT;
+        } else {
+            state = State.CONTENT_UNTIL_CLOSE;
+        }
+        return true;
+    }
+
+    private void onContent(ChannelHandlerContext ctx, ByteBuf data) {
+        if (decompressor == null) {
+            deliver(ctx, data);
+            return;
+        }
+        decompressor.writeInbound(data.retain());
+        drainDecompressor(ctx);
+    }
+
+    private void drainDecompressor(ChannelHandlerContext ctx) {
+        ByteBuf decompressed;
+        while ((decompressed = decompressor.readInbound()) != null) {
+            try {
+                deliver(ctx, decompressed);
+            } finally {
+                decompressed.release();
+            }
+        }
+    }
+
+    private void deliver(ChannelHandlerContext ctx, ByteBuf data) {
+        if (streaming) {
+            responseHandler.streamContent(ctx, data);
+            return;
+        }
+        final int length = data.readableBytes();
+        contentReceived += length;
+        if (contentReceived > maxContentLength) {
+            throw new TooLongFrameException("Response body larger than " + maxContentLength + " bytes.");
+        }
+        if (array != null) {
+            if (arrayIndex + length > array.length) {
+                // 按倍数扩容, 最终恰好为Content-Length, 扩容次数是对数级的
+                array = Arrays.copyOf(array, (int) Math.min(contentLength,
+                        Math.max((long) arrayIndex + length, (long) array.length << 1)));
+            }
+            data.getBytes(data.readerIndex(), array, arrayIndex, length);
+            arrayIndex += length;
+        } else {
+            if (content == null) {
+                // 长度已知时按Content-Length分配(解压时为压缩后的长度), 但不超过MAX_INITIAL_CAPACITY, 之后按需扩容
+                int capacity = contentLength > 0 ? (int) Math.min(contentLength, MAX_INITIAL_CAPACITY) : 256;
+                content = ctx.alloc().buffer(Math.max(length, capacity));
+            }
+            content.writeBytes(data, data.readerIndex(), length);
+        }
+    }
+
+    private void complete(ChannelHandlerContext ctx, List<Object> out) {
+        if (decompressor != null) {
+            if (decompressor.finish()) {
+                drainDecompressor(ctx);
+            }
+            decompressor = null;
+        }
+        if (streaming) {
+            reset();
+            responseHandler.streamEnd(ctx);
+            return;
+        }
+
+        final HttpResponse response;
+        final int length;
+        if (pooledBody) {
+            ByteBuf body = content == null ? Unpooled.EMPTY_BUFFER : content;
+            content = null;
+            length = body.readableBytes();
+            response = new PooledHttpResponse(status, headers, body);
+        } else {
+            byte[] body;
+            if (array != null) {
+                body = array;
+            } else if (content != null) {
+                body = ByteBufUtil.getBytes(content);
+            } else {
+                body = EMPTY_BODY;
+            }
+            length = body.length;
+            response = new HttpResponse(status, body, headers);
+        }
+        // 与聚合后的响应一致: 不再是chunked传输, 总是带有实际的响应体长度
+        if (chunked) {
+            headers.remove(HttpHeaderNames.TRANSFER_ENCODING);
+        }
+        if (!headers.contains(HttpHeaderNames.CONTENT_LENGTH)) {
+            headers.set(HttpHeaderNames.CONTENT_LENGTH, Integer.toString(length));
+        }
+        reset();
+        out.add(response);
+    }
+
+    /**
+     * 清理当前响应的状态, 释放尚未交出的缓冲区
+     */
+    private void reset() {
+        if (state != State.BAD_MESSAGE) {
+            state = State.STATUS_LINE;
+        }
+        status = null;
+        headers = null;
+        pendingName = null;
+        pendingValue = null;
+        streaming = false;
+        chunked = false;
+        remaining = 0;
+        array = null;
+        arrayIndex = 0;
+        contentReceived = 0;
+        if (content != null) {
+            content.release();
+            content = null;
+        }
+        if (decompressor != null) {
+            decompressor.finishAndReleaseAll();
+            decompressor = null;
+        }
+    }
+
+    private static EmbeddedChannel newDecompressor(ChannelHandlerContext ctx, String contentEncoding) {
+        if (contentEncoding == null) {
+            return null;
+        }
+        contentEncoding = contentEncoding.trim();
+        final ZlibWrapper wrapper;
+        if (HttpHeaderValues.GZIP.equalsIgnoreCase(contentEncoding)
+                || HttpHeaderValues.X_GZIP.equalsIgnoreCase(contentEncoding)) {
+            wrapper = ZlibWrapper.GZIP;
+        } else if (HttpHeaderValues.DEFLATE.equalsIgnoreCase(contentEncoding)
+                || HttpHeaderValues.X_DEFLATE.equalsIgnoreCase(contentEncoding)) {
+            wrapper = ZlibWrapper.ZLIB_OR_NONE;
+        } else {
+            return null;
+        }
+        return new EmbeddedChannel(ctx.channel().id(), ctx.channel().metadata().hasDisconnect(),
+                ctx.channel().config(), ZlibCodecFactory.newZlibDecoder(wrapper));
+    }
+
+    private static long parseChunkSize(ByteBuf in, int start, int length) {
+        long size = 0;
+        int digits = 0;
+        for (int i = start; i < start + length; i++) {
+            byte b = in.getByte(i);
+            int digit;
+            if (b >= '0' && b <= '9') {
+                digit = b - '0';
+            } else if (b >= 'a' && b <= 'f') {
+                digit = b - 'a' + 10;
+            } else if (b >= 'A' && b <= 'F') {
+                digit = b - 'A' + 10;
+            } else if (b == ';' || isWhitespace(b)) { // chunk扩展
+                break;
+            } else {
+                throw new CorruptedFrameException("Invalid chunk size: " + in.toString(start, length, CharsetUtil.US_ASCII));
+            }
+            if (++digits > 15) {
+                throw new TooLongFrameException("Chunk size too large: " + in.toString(start, length, CharsetUtil.US_ASCII));
+            }
+            size = size << 4 | digit;
+        }
+        if (digits == 0) {
+            throw new CorruptedFrameException("Invalid chunk size: " + in.toString(start, length, CharsetUtil.US_ASCII));
+        }
+        return size;
+    }
+
+    /**
+     * 已知的头名字返回{@link HttpHeaderNames}中的常量, 不分配新的字符串
+     */
+    private static String name(ByteBuf in, int start, int length) {
+        int h = 0;
+        for (int i = start; i < start + length; i++) {
+            h = 31 * h + toLowerCase(in.getByte(i));
+        }
+        final int mask = KNOWN_NAMES.length - 1;
+        for (int i = h & mask;; i = (i + 1) & mask) {
+            String known = KNOWN_NAMES[i];
+            if (known == null) {
+                return in.toString(start, length, CharsetUtil.US_ASCII);
+            }
+            if (equalsAsciiIgnoreCase(in, start, length, known)) {
+                return known;
+            }
+        }
+    }
+
+    /**
+     * [start, end)去掉首尾空白后的值
+     */
+    private static String value(ByteBuf in, int start, int end) {
+        while (start < end && isWhitespace(in.getByte(start))) {
+            start++;
+        }
+        while (end > start && isWhitespace(in.getByte(end - 1))) {
+            end--;
+        }
+        return start == end ? "" : in.toString(start, end - start, CharsetUtil.ISO_8859_1);
+    }
+
+    /**
+     * 从读索引开始查找LF
+     *
+     * @return LF的位置, 还未收到完整的行时返回-1
+     */
+    private static int findEndOfLine(ByteBuf in) {
+        int lf = in.forEachByte(ByteProcessor.FIND_LF);
+        int length = lf < 0 ? in.readableBytes() : lf - in.readerIndex();
+        if (length > MAX_LINE_LENGTH) {
+            throw new TooLongFrameException("An HTTP line is larger than " + MAX_LINE_LENGTH + " bytes.");
+        }
+        return lf;
+    }
+
+    /**
+     * 读索引到LF之间不含CRLF的行长度
+     */
+    private static int lineLength(ByteBuf in, int lf) {
+        int end = lf > in.readerIndex() && in.getByte(lf - 1) == '\r' ? lf - 1 : lf;
+        return end - in.readerIndex();
+    }
+
+    private static boolean equalsAscii(ByteBuf in, int start, int length, String s) {
+        if (length != s.length()) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (in.getByte(start + i) != s.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * s为小写
+     */
+    private static boolean equalsAsciiIgnoreCase(ByteBuf in, int start, int length, String s) {
+        if (length != s.length()) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (toLowerCase(in.getByte(start + i)) != s.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean containsIgnoreCase(String s, String lowerCaseToken) {
+        return s.toLowerCase().contains(lowerCaseToken);
+    }
+
+    private static int toLowerCase(byte b) {
+        return b >= 'A' && b <= 'Z' ? b + ('a' - 'A') : b;
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t';
+    }
+}
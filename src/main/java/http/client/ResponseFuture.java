@@ -1,28 +1,67 @@
 package http.client;
 
 import java.io.IOException;
-import java.util.Set;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
+import http.HttpHeaders;
 import http.HttpRequest;
-import http.util.ConcurrentHashSet;
-import http.util.future.DefaultPromise;
+import http.HttpResponse;
+import http.HttpStatus;
+import http.client.MetricsCollector.ServerMetrics;
+import http.client.StreamingResponseHandler.State;
+import http.util.future.DefaultProgressivePromise;
 import http.util.future.IPromise;
 import io.netty.channel.Channel;
+import io.netty.util.Timeout;
+import io.netty.util.Timer;
+import io.netty.util.TimerTask;
 
-final class ResponseFuture extends DefaultPromise {
+final class ResponseFuture extends DefaultProgressivePromise {
 
     static final long serialVersionUID = 6167454397202234154L;
 
-    private final long DEADLINE;
     private final HttpRequest request;
+    private final StreamingResponseHandler streamingHandler; // 非空时以流式接收响应体
     private volatile Channel channel;
+    private volatile ChannelPool.Server server; // 请求被分配到的服务端地址, 用于负载均衡统计
+    private volatile ServerMetrics metrics; // 请求所在服务端的指标
+    private final long startNanos = System.nanoTime();
+    private volatile boolean timedOut;
+    private volatile Timeout timeout;
 
     private volatile boolean requestSent; // 请求是否已发送
+    private volatile int retries; // 已重试次数
 
-    ResponseFuture(HttpRequest request, int timeout) {
+    // 流式接收状态, 只在IO线程中访问
+    private HttpStatus streamingStatus;
+    private HttpHeaders streamingHeaders;
+    private long contentLength;
+    private long receivedBytes;
+
+    ResponseFuture(HttpRequest request) {
+        this(request, null, null);
+    }
+
+    /**
+     * @param executor 执行监听器的默认线程池, 为null时在完成future的线程中执行
+     */
+    ResponseFuture(HttpRequest request, StreamingResponseHandler streamingHandler, Executor executor) {
+        super(executor);
         this.request = request;
-        this.DEADLINE = System.currentTimeMillis() + timeout;
-        watchedFutures.add(this);
+        this.streamingHandler = streamingHandler;
+    }
+
+    /**
+     * 在时间轮上登记超时任务, future完成时会自动取消
+     */
+    void scheduleTimeout(Timer timer, long timeoutMillis) {
+        this.timeout = timer.newTimeout(new TimeoutTask(this), timeoutMillis, TimeUnit.MILLISECONDS);
+        if (isDone()) { // 登记期间已完成
+            cancelTimeout();
+        }
     }
     
     void setChannel(Channel channel) {
@@ -32,7 +71,41 @@ final class ResponseFuture extends DefaultPromise {
     Channel getChannel() {
         return this.channel;
     }
+
+    /**
+     * 解除与连接的绑定, 多个线程并发调用时只有一个线程能拿到连接, 保证连接只被归还一次
+     */
+    Channel detachChannel() {
+        return CHANNEL_UPDATER.getAndSet(this, null);
+    }
     
+    void setServer(ChannelPool.Server server) {
+        this.server = server;
+    }
+
+    /**
+     * 解除与服务端地址的绑定, 与{@link #detachChannel()}一样保证只有一个线程能拿到
+     */
+    ChannelPool.Server detachServer() {
+        return SERVER_UPDATER.getAndSet(this, null);
+    }
+
+    void setMetrics(ServerMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    ServerMetrics getMetrics() {
+        return metrics;
+    }
+
+    long getStartNanos() {
+        return startNanos;
+    }
+
+    boolean isTimedOut() {
+        return timedOut;
+    }
+
     void requestSent() {
         this.requestSent = true;
     }
@@ -41,56 +114,156 @@ final class ResponseFuture extends DefaultPromise {
         return this.requestSent;
     }
 
+    int getRetries() {
+        return retries;
+    }
+
+    /**
+     * 准备在新连接上重新发送
+     */
+    void prepareRetry() {
+        this.retries++;
+        this.requestSent = false;
+    }
+
     HttpRequest getRequest() {
         return request;
     }
 
+    /**
+     * 以响应完成future, future已完成(如已超时)时释放响应占用的资源
+     */
+    void complete(HttpResponse response) {
+        setSuccess(response);
+        if (getNow() != response) {
+            discard(response);
+        }
+    }
+
+    /**
+     * 释放无人接收的响应占用的资源
+     */
+    static void discard(HttpResponse response) {
+        if (response instanceof PooledHttpResponse) {
+            ((PooledHttpResponse) response).close();
+        }
+    }
+
+    boolean isStreaming() {
+        return streamingHandler != null;
+    }
+
+    /**
+     * 流式模式下收到响应头
+     * 
+     * @param contentLength 响应体长度, 未知时为-1
+     * @return 是否继续读取
+     */
+    boolean streamHeaders(HttpStatus status, HttpHeaders headers, long contentLength) {
+        this.streamingStatus = status;
+        this.streamingHeaders = headers;
+        this.contentLength = contentLength;
+        try {
+            return streamingHandler.onHeaders(status, headers) == State.CONTINUE;
+        } catch (Throwable e) {
+            setFailure(e);
+            return false;
+        }
+    }
+
+    /**
+     * 流式模式下收到一块响应体, 并以已接收字节数报告进度. 响应体长度未知时, total与已接收字节数相同
+     * 
+     * @return 是否继续读取
+     */
+    boolean streamChunk(ByteBuffer chunk) {
+        final int size = chunk.remaining();
+        try {
+            if (streamingHandler.onChunk(chunk) != State.CONTINUE) {
+                return false;
+            }
+        } catch (Throwable e) {
+            setFailure(e);
+            return false;
+        }
+        if (size > 0) {
+            receivedBytes += size;
+            setProgress(receivedBytes, Math.max(contentLength, receivedBytes));
+        }
+        return true;
+    }
+
+    /**
+     * 流式模式下响应接收完毕或被调用者中止, future以不含响应体的{@link HttpResponse}完成
+     * 
+     * @param aborted 是否被调用者中止
+     */
+    void streamComplete(boolean aborted) {
+        if (isDone()) {
+            return;
+        }
+        if (!aborted) {
+            try {
+                streamingHandler.onComplete();
+            } catch (Throwable e) {
+                setFailure(e);
+                return;
+            }
+        }
+        setSuccess(new HttpResponse(streamingStatus, null, streamingHeaders));
+    }
+
     @Override
     public IPromise setSuccess(Object result) {
-        watchedFutures.remove(this);
+        cancelTimeout();
         return super.setSuccess(result);
     }
 
     @Override
     public IPromise setFailure(Throwable cause) {
-        watchedFutures.remove(this);
+        cancelTimeout();
         return super.setFailure(cause);
     }
 
-    boolean isTimedout() {
-        return System.currentTimeMillis() > DEADLINE;
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        boolean cancelled = super.cancel(mayInterruptIfRunning);
+        if (cancelled) { // 取消不经过setFailure, 同样需要从时间轮上移除超时任务, 以免超时前一直引用请求
+            cancelTimeout();
+        }
+        return cancelled;
     }
 
-    static final Set<ResponseFuture> watchedFutures = new ConcurrentHashSet<ResponseFuture>();
-    static {
-        Thread watchdogThread = new Thread(new Watchdog());
-        watchdogThread.setName("ATS-Monitor-HttpResponseFuture-Watchdog");
-        watchdogThread.setDaemon(true);
-        watchdogThread.start();
+    private void cancelTimeout() {
+        Timeout timeout = this.timeout;
+        if (timeout != null) {
+            timeout.cancel();
+        }
     }
 
-    private static final class Watchdog implements Runnable {
+    private static final AtomicReferenceFieldUpdater<ResponseFuture, Channel> CHANNEL_UPDATER = AtomicReferenceFieldUpdater
+            .newUpdater(ResponseFuture.class, Channel.class, "channel");
+
+    private static final AtomicReferenceFieldUpdater<ResponseFuture, ChannelPool.Server> SERVER_UPDATER = AtomicReferenceFieldUpdater
+            .newUpdater(ResponseFuture.class, ChannelPool.Server.class, "server");
+
+    private static final class TimeoutTask implements TimerTask {
+
+        private final ResponseFuture future;
+
+        TimeoutTask(ResponseFuture future) {
+            this.future = future;
+        }
 
         @Override
-        public void run() {
-            while (true) {
-                for (ResponseFuture future : watchedFutures) {
-                    if (future.isTimedout()) {
-                        String whichSide = future.isRequestSent() ? "server" : "client";
-                        // assert it's an IO exception
-                        Throwable cause = new IOException("Request timed out at "
-                                + whichSide + " side");
-                        future.setFailure(cause);
-                        watchedFutures.remove(future);
-                    }
-                }
-
-                try {
-                    Thread.sleep(100);
-                } catch (InterruptedException e) {
-                    // ignore
-                }
+        public void run(Timeout timeout) throws Exception {
+            if (future.isDone()) {
+                return;
             }
+            future.timedOut = true;
+            String whichSide = future.isRequestSent() ? "server" : "client";
+            // assert it's an IO exception
+            future.setFailure(new IOException("Request timed out at " + whichSide + " side"));
         }
     }
-}
\ No newline at end of file
+}
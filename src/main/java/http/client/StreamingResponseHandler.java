@@ -0,0 +1,44 @@
+package http.client;
+
+import java.nio.ByteBuffer;
+
+import http.HttpHeaders;
+import http.HttpStatus;
+
+/**
+ * <pre>
+ * 流式接收响应体的回调
+ * 
+ * 响应体不会在内存中聚合, 而是每收到一块数据就回调一次{@link #onChunk(ByteBuffer)}, 
+ * 因此内存占用只与单块数据的大小有关, 而与响应体大小无关.
+ * 
+ * 所有回调都在IO线程中执行, 不能有阻塞操作.
+ * 任意回调返回{@link State#ABORT}都会停止读取, 此时连接会被关闭, future以已收到的响应头完成.
+ * </pre>
+ *
+ * @author lixiaohui
+ */
+public interface StreamingResponseHandler {
+
+    enum State {
+        /** 继续读取 */
+        CONTINUE,
+        /** 停止读取并关闭连接 */
+        ABORT
+    }
+
+    /**
+     * 收到响应行和响应头
+     */
+    State onHeaders(HttpStatus status, HttpHeaders headers) throws Exception;
+
+    /**
+     * 收到一块响应体数据, chunk只在回调期间有效, 需要保留时请自行拷贝
+     */
+    State onChunk(ByteBuffer chunk) throws Exception;
+
+    /**
+     * 响应体接收完毕
+     */
+    void onComplete() throws Exception;
+}
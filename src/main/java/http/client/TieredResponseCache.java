@@ -0,0 +1,40 @@
+package http.client;
+
+/**
+ * <pre>
+ * 两级响应缓存, 如{@link MemoryResponseCache}在前, {@link DiskResponseCache}在后
+ * 
+ * 读取时依次查找, 写入和删除同时作用于两级. 下一级命中的缓存项不会回填到上一级, 
+ * 因为磁盘缓存的响应体直接引用映射区域, 回填会把它拷贝到堆内存.
+ * </pre>
+ *
+ * @author lixiaohui
+ */
+public class TieredResponseCache implements ResponseCache {
+
+    private final ResponseCache first;
+    private final ResponseCache second;
+
+    public TieredResponseCache(ResponseCache first, ResponseCache second) {
+        this.first = first;
+        this.second = second;
+    }
+
+    @Override
+    public CacheEntry get(String key) {
+        CacheEntry entry = first.get(key);
+        return entry != null ? entry : second.get(key);
+    }
+
+    @Override
+    public void put(String key, CacheEntry entry) {
+        first.put(key, entry);
+        second.put(key, entry);
+    }
+
+    @Override
+    public void remove(String key) {
+        first.remove(key);
+        second.remove(key);
+    }
+}
@@ -0,0 +1,18 @@
+package http.client;
+
+/**
+ * {@link AsyncHttpClient}使用的IO传输层实现
+ *
+ * @author lixiaohui
+ */
+public enum TransportType {
+
+    /** Linux上native epoll可用时使用epoll, 否则使用NIO */
+    AUTO,
+
+    /** JDK NIO, 所有平台可用 */
+    NIO,
+
+    /** Linux native epoll, 系统调用开销更小, 每次读产生的垃圾更少, 不可用时创建客户端失败 */
+    EPOLL
+}
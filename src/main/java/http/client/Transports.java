@@ -0,0 +1,137 @@
+package http.client;
+
+import java.util.concurrent.ThreadFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.EventLoop;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollMode;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.flush.FlushConsolidationHandler;
+
+/**
+ * 根据{@link TransportType}创建IO线程池并配置{@link Bootstrap}
+ *
+ * @author lixiaohui
+ */
+final class Transports {
+
+    private static final Logger logger = LoggerFactory.getLogger(Transports.class);
+
+    private Transports() {
+    }
+
+    /**
+     * 是否使用native epoll
+     */
+    static boolean useEpoll(AsyncHttpClientConfig config) {
+        switch (config.getTransport()) {
+        case NIO:
+            return false;
+        case EPOLL:
+            if (!Epoll.isAvailable()) {
+                throw new IllegalStateException("Native epoll transport is not available",
+                        Epoll.unavailabilityCause());
+            }
+            return true;
+        default:
+            if (!Epoll.isAvailable()) {
+                logger.debug("Native epoll transport is not available, fallback to nio: {}",
+                        Epoll.unavailabilityCause().getMessage());
+                return false;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * IO线程池(或其中的一个IO线程)使用的传输层, 只支持epoll和nio
+     */
+    static boolean isEpoll(EventLoopGroup group) {
+        if (group instanceof EventLoop && ((EventLoop) group).parent() != null) {
+            group = ((EventLoop) group).parent();
+        }
+        if (group instanceof EpollEventLoopGroup) {
+            return true;
+        }
+        if (group instanceof NioEventLoopGroup) {
+            return false;
+        }
+        throw new IllegalArgumentException("Unsupported event loop group: " + group.getClass().getName());
+    }
+
+    static EventLoopGroup newEventLoopGroup(boolean epoll, int threads, ThreadFactory threadFactory) {
+        return epoll ? new EpollEventLoopGroup(threads, threadFactory) : new NioEventLoopGroup(threads, threadFactory);
+    }
+
+    /**
+     * 设置channel类型以及传输层相关的选项
+     */
+    static void configure(Bootstrap bootstrap, boolean epoll, AsyncHttpClientConfig config) {
+        if (!epoll) {
+            bootstrap.channel(NioSocketChannel.class);
+            return;
+        }
+
+        bootstrap.channel(EpollSocketChannel.class);
+        bootstrap.option(EpollChannelOption.EPOLL_MODE,
+                config.isEpollEdgeTriggered() ? EpollMode.EDGE_TRIGGERED : EpollMode.LEVEL_TRIGGERED);
+        if (config.isTcpQuickAck()) {
+            bootstrap.option(EpollChannelOption.TCP_QUICKACK, true);
+        }
+        if (config.getBusyPollMicros() > 0) {
+            bootstrap.option(EpollChannelOption.SO_BUSY_POLL, config.getBusyPollMicros());
+        }
+    }
+
+    /**
+     * <pre>
+     * 按配置在pipeline末尾加入flush合并处理器, 合并之后的处理器发出的flush.
+     * 
+     * 读事件中的flush会推迟到本次读完成(channelReadComplete)或累计到指定次数时才真正flush;
+     * 开启{@link AsyncHttpClientConfig#isFlushConsolidationWhenNoRead()}时, 读事件之外的flush也会推迟到
+     * IO线程稍后执行, 从而合并同一轮事件循环中的多次写出.
+     * </pre>
+     */
+    static void addFlushConsolidator(ChannelPipeline pipeline, AsyncHttpClientConfig config) {
+        if (config.getFlushConsolidationLimit() > 0) {
+            pipeline.addLast("FLUSH_CONSOLIDATOR", new FlushConsolidator(config.getFlushConsolidationLimit(),
+                    config.isFlushConsolidationWhenNoRead()));
+        }
+    }
+
+    /**
+     * 连接变为不可写时不立即flush: 此时往往正处于编码器的写出过程中, 立即flush会同步触发可写事件,
+     * 使{@link io.netty.handler.stream.ChunkedWriteHandler}重入写出下一块, 打乱请求体的字节顺序. 推迟到IO线程稍后flush
+     */
+    private static final class FlushConsolidator extends FlushConsolidationHandler {
+
+        FlushConsolidator(int explicitFlushAfterFlushes, boolean consolidateWhenNoReadInProgress) {
+            super(explicitFlushAfterFlushes, consolidateWhenNoReadInProgress);
+        }
+
+        @Override
+        public void channelWritabilityChanged(final ChannelHandlerContext ctx) throws Exception {
+            if (!ctx.channel().isWritable()) {
+                ctx.executor().execute(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        ctx.flush();
+                    }
+                });
+            }
+            ctx.fireChannelWritabilityChanged();
+        }
+    }
+}
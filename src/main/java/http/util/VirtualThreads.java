@@ -0,0 +1,62 @@
+package http.util;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * <pre>
+ * 虚拟线程(JDK 21)支持
+ *
+ * 本项目以Java 8编译, 通过反射调用JDK 21的API, 低版本JDK上{@link #isSupported()}返回false.
+ * {@link http.util.future.DefaultPromise}的等待基于{@link java.util.concurrent.locks.LockSupport},
+ * 在虚拟线程中阻塞等待(如{@link http.client.AsyncHttpClient#request(http.HttpRequest)})时会卸载虚拟线程, 不会占住载体线程.
+ * </pre>
+ *
+ * @author lixiaohui
+ */
+public final class VirtualThreads {
+
+    /** Executors.newVirtualThreadPerTaskExecutor(), 不支持时为null */
+    private static final MethodHandle NEW_EXECUTOR = findNewExecutor();
+
+    private VirtualThreads() {
+    }
+
+    /**
+     * 当前JDK是否支持虚拟线程
+     */
+    public static boolean isSupported() {
+        return NEW_EXECUTOR != null;
+    }
+
+    /**
+     * 每个任务在一个新的虚拟线程中执行的线程池
+     *
+     * @throws UnsupportedOperationException 当前JDK不支持虚拟线程
+     */
+    public static ExecutorService newExecutor() {
+        if (NEW_EXECUTOR == null) {
+            throw new UnsupportedOperationException(
+                    "Virtual threads require JDK 21+, current is " + System.getProperty("java.version"));
+        }
+        try {
+            return (ExecutorService) NEW_EXECUTOR.invoke();
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static MethodHandle findNewExecutor() {
+        try {
+            return MethodHandles.publicLookup().findStatic(Executors.class, "newVirtualThreadPerTaskExecutor",
+                    MethodType.methodType(ExecutorService.class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            return null;
+        }
+    }
+}
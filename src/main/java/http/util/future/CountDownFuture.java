@@ -1,5 +1,6 @@
 package http.util.future;
 
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 /**
  * 类似于{@link java.util.concurrent.CountDownLatch}, 但{@link CountDownFuture}可以添加完成监听器
@@ -12,12 +13,15 @@ public final class CountDownFuture extends DefaultPromise {
     
     private static final long serialVersionUID = 8184812105149735481L;
     
+    private static final AtomicIntegerFieldUpdater<CountDownFuture> COUNT_UPDATER = AtomicIntegerFieldUpdater
+            .newUpdater(CountDownFuture.class, "count");
+    
     private volatile int count;
     
     public CountDownFuture(int count) {
         this.count = count;
         if (count == 0) {
-            setSuccess(null);
+            super.setSuccess(null);
         }
     }
     
@@ -44,26 +48,17 @@ public final class CountDownFuture extends DefaultPromise {
      * if n <= 0, then count is set to 0.
      */
     public void countDown(int n) {
-        if (isDone()) {
-            return;
-        }
-        
-        synchronized (this) {
-            if (isDone()) {
+        for (;;) {
+            final int count = this.count;
+            if (count == 0) {
                 return;
             }
-            
-            if (n <= 0) {
-                this.count = 0;
-                super.setSuccess(null);
-            } else {
-                final int count = this.count - n;
-                if (count > 0) {
-                    this.count = count;
-                } else {
-                    this.count = 0;
+            final int next = n <= 0 ? 0 : Math.max(count - n, 0);
+            if (COUNT_UPDATER.compareAndSet(this, count, next)) {
+                if (next == 0) {
                     super.setSuccess(null);
                 }
+                return;
             }
         }
     }
@@ -84,4 +79,4 @@ public final class CountDownFuture extends DefaultPromise {
         future.countDown(1);
         future.countDown(1);
     }
-}
\ No newline at end of file
+}
\ No newline at end of file
@@ -1,8 +1,5 @@
 package http.util.future;
 
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Map.Entry;
 import java.util.concurrent.Executor;
 
 import org.slf4j.Logger;
@@ -42,19 +39,16 @@ public class DefaultProgressivePromise extends DefaultPromise implements
         return this;
     }
 
-    private void notifyProgressiveListeners(long progress, long total) {
-        Map<IFutureListener, Executor> listeners;
-        synchronized (this) {
-            listeners = new HashMap<>(listeners());
-        }
+    private void notifyProgressiveListeners(final long progress, final long total) {
+        forEachListener(new ListenerVisitor() {
 
-        for (Entry<IFutureListener, Executor> entry : listeners.entrySet()) {
-            IFutureListener l = entry.getKey();
-            if (l instanceof IProgressiveFutureListener) {
-                notifyProgressiveListener((IProgressiveFutureListener) l, entry.getValue(),
-                        progress, total);
+            @Override
+            public void visit(IFutureListener listener, Executor executor) {
+                if (listener instanceof IProgressiveFutureListener) {
+                    notifyProgressiveListener((IProgressiveFutureListener) listener, executor, progress, total);
+                }
             }
-        }
+        });
     }
 
     private void notifyProgressiveListener(IProgressiveFutureListener l, Executor e,
@@ -1,9 +1,8 @@
 package http.util.future;
 
 import java.io.Serializable;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Objects;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.ConcurrentHashMap;
@@ -12,12 +11,20 @@ import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * 
+ * Lock free {@link IPromise}.
+ * <p>
+ * The result is published by a single CAS. Listeners are kept in one field: a
+ * listener using the default executor is stored as is, otherwise it's wrapped
+ * with its executor, and more than one listener are stored in an array which is
+ * copied on every change. Waiting threads are parked on a stack of wait nodes,
+ * attachments are created on first use.
  *
  * @author winflex
  */
@@ -29,27 +36,50 @@ public class DefaultPromise implements IPromise, Serializable {
 
     private static final Object SUCCESS_SIGNAL = new Object();
 
+    /**
+     * Replaces the listeners once they have been notified, listeners added
+     * afterwards are notified immediately
+     */
+    private static final Object NOTIFIED = new Object();
+
+    private static final AtomicReferenceFieldUpdater<DefaultPromise, Object> RESULT_UPDATER = AtomicReferenceFieldUpdater
+            .newUpdater(DefaultPromise.class, Object.class, "result");
+    private static final AtomicReferenceFieldUpdater<DefaultPromise, Object> LISTENERS_UPDATER = AtomicReferenceFieldUpdater
+            .newUpdater(DefaultPromise.class, Object.class, "listeners");
+    private static final AtomicReferenceFieldUpdater<DefaultPromise, WaitNode> WAITERS_UPDATER = AtomicReferenceFieldUpdater
+            .newUpdater(DefaultPromise.class, WaitNode.class, "waiters");
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<DefaultPromise, ConcurrentMap> ATTACHMENTS_UPDATER = AtomicReferenceFieldUpdater
+            .newUpdater(DefaultPromise.class, ConcurrentMap.class, "attachments");
+
     private volatile Object result;
-    
+
     /**
-     * Accessed only inside synchronized(this)
+     * null, an {@link IFutureListener} using the default executor, a
+     * {@link ListenerEntry}, an Object[] of both kinds, or {@link #NOTIFIED}
      */
-    private final Map<IFutureListener, Executor> listeners = new HashMap<>();
-    private final ConcurrentMap<String, Object> attachments = new ConcurrentHashMap<>();
+    private volatile Object listeners;
+
+    /**
+     * Threads waiting for completion, detached by the completing thread
+     */
+    private transient volatile WaitNode waiters;
+
+    private volatile ConcurrentMap<String, Object> attachments;
 
     /**
      * The default executor to execute {@link IFutureListener#operationCompleted(IFuture)}
      */
     private final Executor defaultExecutor;
-    
+
     public DefaultPromise() {
         this(SynchronousExecutor.INSTANCE);
     }
-    
+
     public DefaultPromise(Executor executor) {
         this.defaultExecutor = executor == null ? SynchronousExecutor.INSTANCE : executor;
     }
-    
+
     @Override
     public Object get() throws InterruptedException, ExecutionException {
         await();
@@ -77,19 +107,11 @@ public class DefaultPromise implements IPromise, Serializable {
 
     @Override
     public boolean cancel(boolean mayInterruptIfRunning) {
-        if (isDone()) {
-            return false;
-        }
-
-        synchronized (this) {
-            if (isDone()) {
-                return false;
-            }
-            result = new CauseHolder(new CancellationException());
-            notifyAll();
+        if (complete0(new CauseHolder(new CancellationException()))) {
+            notifyListeners();
+            return true;
         }
-        notifyListeners();
-        return true;
+        return false;
     }
 
     @Override
@@ -133,27 +155,29 @@ public class DefaultPromise implements IPromise, Serializable {
 
     @Override
     public IFuture await() throws InterruptedException {
-        return await0(true);
+        await0(false, 0L, true);
+        return this;
     }
 
     @Override
     public IFuture awaitUninterruptibly() {
         try {
-            return await0(false);
+            await0(false, 0L, false);
         } catch (InterruptedException e) {
             throw new Error(e);
         }
+        return this;
     }
 
     @Override
     public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
-        return await0(unit.toNanos(timeout), true);
+        return await0(true, unit.toNanos(timeout), true);
     }
 
     @Override
     public boolean awaitUninterruptibly(long timeout, TimeUnit unit) {
         try {
-            return await0(unit.toNanos(timeout), false);
+            return await0(true, unit.toNanos(timeout), false);
         } catch (InterruptedException e) {
             throw new Error(e);
         }
@@ -168,51 +192,53 @@ public class DefaultPromise implements IPromise, Serializable {
     public IFuture addListener(IFutureListener listener, Executor executor) {
         Objects.requireNonNull(listener, "listener");
         Objects.requireNonNull(executor, "executor");
-        
-        if (isDone()) {
-            notifyListener(listener, executor);
-            return this;
-        }
 
-        synchronized (this) {
-            if (!isDone()) {
-                listeners.put(listener, executor);
+        Object entry = executor == defaultExecutor ? listener : new ListenerEntry(listener, executor);
+        for (;;) {
+            Object current = listeners;
+            if (current == NOTIFIED || isDone()) {
+                notifyListener(listener, executor);
+                return this;
+            }
+            if (LISTENERS_UPDATER.compareAndSet(this, current, add(current, entry))) {
                 return this;
             }
         }
-
-        notifyListener(listener, executor);
-        return this;
     }
 
     @Override
     public IFuture removeListener(IFutureListener listener) {
-        synchronized (this) {
-            if (!isDone()) {
-                listeners.remove(listener);
+        for (;;) {
+            Object current = listeners;
+            if (current == null || current == NOTIFIED) {
+                return this;
+            }
+            Object updated = remove(current, listener);
+            if (updated == current || LISTENERS_UPDATER.compareAndSet(this, current, updated)) {
+                return this;
             }
         }
-        return this;
     }
 
     @Override
     public Object getAttachment(String name) {
-        return attachments.get(name);
+        ConcurrentMap<String, Object> attachments = this.attachments;
+        return attachments == null ? null : attachments.get(name);
     }
 
     @Override
     public Map<String, Object> getAttachments() {
-        return attachments;
+        return attachments();
     }
-    
+
     @Override
     public void setAttachment(String name, Object value) {
-        attachments.put(name, value);
+        attachments().put(name, value);
     }
 
     @Override
     public IPromise setSuccess(Object result) {
-        if (setSuccess0(result)) {
+        if (complete0(result == null ? SUCCESS_SIGNAL : result)) {
             notifyListeners();
         }
         return this;
@@ -220,86 +246,40 @@ public class DefaultPromise implements IPromise, Serializable {
 
     @Override
     public IPromise setFailure(Throwable cause) {
-        if (setFailure0(cause)) {
+        if (complete0(new CauseHolder(cause))) {
             notifyListeners();
         }
 
         return this;
     }
 
-    private boolean setFailure0(Throwable cause) {
-        if (isDone()) {
-            return false;
-        }
-
-        synchronized (this) {
-            if (isDone()) {
-                return false;
-            }
-
-            result = new CauseHolder(cause);
-            notifyAll();
-        }
-        return true;
-    }
-
-    private boolean setSuccess0(Object result) {
-        if (isDone()) {
+    /**
+     * Publishes the result and wakes up all the waiting threads
+     */
+    private boolean complete0(Object result) {
+        if (!RESULT_UPDATER.compareAndSet(this, null, result)) {
             return false;
         }
-
-        synchronized (this) {
-            if (isDone()) {
-                return false;
+        WaitNode node = WAITERS_UPDATER.getAndSet(this, null);
+        for (; node != null; node = node.next) {
+            Thread thread = node.thread;
+            if (thread != null) {
+                node.thread = null;
+                LockSupport.unpark(thread);
             }
-
-            if (result == null) {
-                this.result = SUCCESS_SIGNAL;
-            } else {
-                this.result = result;
-            }
-            notifyAll();
         }
         return true;
     }
 
-    private IFuture await0(boolean interruptable) throws InterruptedException {
-        if (isDone()) {
-            return this;
-        }
-
-        if (interruptable && Thread.interrupted()) {
-            throw new InterruptedException("thread had been interrupted");
-        }
-
-        boolean interrupted = false;
-        synchronized (this) {
-            while (!isDone()) {
-                try {
-                    wait();
-                } catch (InterruptedException e) {
-                    if (interruptable) {
-                        throw e;
-                    } else {
-                        interrupted = true;
-                    }
-                }
-            }
-        }
-
-        if (interrupted) {
-            Thread.currentThread().interrupt();
-        }
-        return this;
-    }
-
-    private boolean await0(long timeoutNanos, boolean interruptable)
-            throws InterruptedException {
+    /**
+     * @param timed whether to wait at most timeoutNanos
+     */
+    private boolean await0(boolean timed, long timeoutNanos, boolean interruptable) throws InterruptedException {
         if (isDone()) {
             return true;
         }
 
-        if (timeoutNanos <= 0) {
+        if (timed && timeoutNanos <= 0) {
             return isDone();
         }
 
@@ -307,44 +287,73 @@ public class DefaultPromise implements IPromise, Serializable {
             throw new InterruptedException("thread had been interrupted");
         }
 
-        long startTime = System.nanoTime();
-        long waitTime = timeoutNanos;
+        final long deadline = timed ? System.nanoTime() + timeoutNanos : 0L;
         boolean interrupted = false;
-
+        WaitNode node = null;
+        boolean queued = false;
         try {
-            synchronized (this) {
+            for (;;) {
+                // re-checked after enqueuing, the completing thread may have detached the waiters before
                 if (isDone()) {
                     return true;
                 }
-
-                for (;;) {
-                    try {
-                        wait(waitTime / 1000000, (int) (waitTime % 1000000));
-                    } catch (InterruptedException e) {
-                        if (interruptable) {
-                            throw e;
-                        } else {
-                            interrupted = true;
+                if (node == null) {
+                    node = new WaitNode();
+                } else if (!queued) {
+                    queued = WAITERS_UPDATER.compareAndSet(this, node.next = waiters, node);
+                } else {
+                    if (timed) {
+                        long remaining = deadline - System.nanoTime();
+                        if (remaining <= 0) {
+                            return isDone();
                         }
-                    }
-
-                    if (isDone()) {
-                        return true;
+                        LockSupport.parkNanos(this, remaining);
                     } else {
-                        waitTime = timeoutNanos - (System.nanoTime() - startTime);
-                        if (waitTime <= 0) {
-                            return isDone();
+                        LockSupport.park(this);
+                    }
+                    if (Thread.interrupted()) {
+                        if (interruptable) {
+                            throw new InterruptedException();
                         }
+                        interrupted = true;
                     }
                 }
             }
         } finally {
+            if (queued && !isDone()) {
+                removeWaiter(node);
+            }
             if (interrupted) {
                 Thread.currentThread().interrupt();
             }
         }
     }
 
+    /**
+     * Unlinks a timed out or interrupted wait node, the same way as
+     * {@link java.util.concurrent.FutureTask} does
+     */
+    private void removeWaiter(WaitNode node) {
+        node.thread = null;
+        retry:
+        for (;;) {
+            for (WaitNode pred = null, q = waiters, s; q != null; q = s) {
+                s = q.next;
+                if (q.thread != null) {
+                    pred = q;
+                } else if (pred != null) {
+                    pred.next = s;
+                    if (pred.thread == null) { // pred removed concurrently
+                        continue retry;
+                    }
+                } else if (!WAITERS_UPDATER.compareAndSet(this, q, s)) {
+                    continue retry;
+                }
+            }
+            break;
+        }
+    }
+
     private void notifyListener(IFutureListener listener, Executor executor) {
         if (executor == SynchronousExecutor.INSTANCE) {
             // No need to new runnable instance
@@ -369,24 +378,143 @@ public class DefaultPromise implements IPromise, Serializable {
     }
 
     private void notifyListeners() {
-        Map<IFutureListener, Executor> copy;
-        synchronized (this) {
-            copy = new HashMap<>(listeners);
+        Object listeners = LISTENERS_UPDATER.getAndSet(this, NOTIFIED);
+        if (listeners == null) {
+            return;
         }
-        
-        for (Entry<IFutureListener, Executor> entry : copy.entrySet()) {
-            notifyListener(entry.getKey(), entry.getValue());
+        if (listeners instanceof Object[]) {
+            for (Object entry : (Object[]) listeners) {
+                notifyListener(entry);
+            }
+        } else {
+            notifyListener(listeners);
+        }
+    }
+
+    private void notifyListener(Object entry) {
+        if (entry instanceof ListenerEntry) {
+            notifyListener(((ListenerEntry) entry).listener, ((ListenerEntry) entry).executor);
+        } else {
+            notifyListener((IFutureListener) entry, defaultExecutor);
         }
     }
 
     protected final Executor defaultExecutor() {
         return this.defaultExecutor;
     }
-    
-    protected final Map<IFutureListener, Executor> listeners() {
-        return this.listeners;
+
+    /**
+     * Invokes visitor for every listener not yet notified of completion, without copying
+     */
+    protected final void forEachListener(ListenerVisitor visitor) {
+        Object listeners = this.listeners;
+        if (listeners == null || listeners == NOTIFIED) {
+            return;
+        }
+        if (listeners instanceof Object[]) {
+            for (Object entry : (Object[]) listeners) {
+                visit(visitor, entry);
+            }
+        } else {
+            visit(visitor, listeners);
+        }
+    }
+
+    private void visit(ListenerVisitor visitor, Object entry) {
+        if (entry instanceof ListenerEntry) {
+            visitor.visit(((ListenerEntry) entry).listener, ((ListenerEntry) entry).executor);
+        } else {
+            visitor.visit((IFutureListener) entry, defaultExecutor);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private ConcurrentMap<String, Object> attachments() {
+        ConcurrentMap<String, Object> attachments = this.attachments;
+        if (attachments == null) {
+            ATTACHMENTS_UPDATER.compareAndSet(this, null, new ConcurrentHashMap<String, Object>(4));
+            attachments = this.attachments;
+        }
+        return attachments;
+    }
+
+    /**
+     * Adds entry to the listeners, replacing the executor if the listener was already added
+     */
+    private static Object add(Object current, Object entry) {
+        if (current == null) {
+            return entry;
+        }
+        IFutureListener listener = listenerOf(entry);
+        if (!(current instanceof Object[])) {
+            return listenerOf(current) == listener ? entry : new Object[] { current, entry };
+        }
+        Object[] array = (Object[]) current;
+        for (int i = 0; i < array.length; i++) {
+            if (listenerOf(array[i]) == listener) {
+                Object[] copy = array.clone();
+                copy[i] = entry;
+                return copy;
+            }
+        }
+        Object[] copy = Arrays.copyOf(array, array.length + 1);
+        copy[array.length] = entry;
+        return copy;
+    }
+
+    /**
+     * @return current itself if the listener was not added
+     */
+    private static Object remove(Object current, IFutureListener listener) {
+        if (!(current instanceof Object[])) {
+            return listenerOf(current) == listener ? null : current;
+        }
+        Object[] array = (Object[]) current;
+        for (int i = 0; i < array.length; i++) {
+            if (listenerOf(array[i]) == listener) {
+                if (array.length == 2) {
+                    return array[1 - i];
+                }
+                Object[] copy = new Object[array.length - 1];
+                System.arraycopy(array, 0, copy, 0, i);
+                System.arraycopy(array, i + 1, copy, i, copy.length - i);
+                return copy;
+            }
+        }
+        return current;
+    }
+
+    private static IFutureListener listenerOf(Object entry) {
+        return entry instanceof ListenerEntry ? ((ListenerEntry) entry).listener : (IFutureListener) entry;
+    }
+
+    /**
+     * Receives listeners from {@link DefaultPromise#forEachListener(ListenerVisitor)}
+     */
+    protected interface ListenerVisitor {
+
+        void visit(IFutureListener listener, Executor executor);
+    }
+
+    private static final class ListenerEntry implements Serializable {
+
+        private static final long serialVersionUID = -3304893958146397513L;
+
+        final IFutureListener listener;
+        final Executor executor;
+
+        ListenerEntry(IFutureListener listener, Executor executor) {
+            this.listener = listener;
+            this.executor = executor;
+        }
     }
-    
+
+    private static final class WaitNode {
+
+        volatile Thread thread = Thread.currentThread();
+        volatile WaitNode next;
+    }
+
     private static final class CauseHolder implements Serializable {
 
         private static final long serialVersionUID = 8712728693792003462L;
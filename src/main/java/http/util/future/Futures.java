@@ -0,0 +1,273 @@
+package http.util.future;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * Non-blocking composition of {@link IFuture}s.
+ * <p>
+ * Continuations are registered as listeners and run on the given executor,
+ * {@link SynchronousExecutor#INSTANCE} runs them in the thread completing the
+ * source future without any thread hop. A failed or cancelled source fails or
+ * cancels the derived future; cancelling a derived future does not cancel its
+ * sources, the same as {@link CompletableFuture}.
+ *
+ * @author winflex
+ */
+public final class Futures {
+
+    private Futures() {
+    }
+
+    public static IFuture succeeded(Object result) {
+        return new DefaultPromise().setSuccess(result);
+    }
+
+    public static IFuture failed(Throwable cause) {
+        return new DefaultPromise().setFailure(Objects.requireNonNull(cause, "cause"));
+    }
+
+    /**
+     * @see IFuture#thenApply(Function, Executor)
+     */
+    public static IFuture thenApply(IFuture future, final Function<Object, ?> fn, Executor executor) {
+        Objects.requireNonNull(fn, "fn");
+        final DefaultPromise promise = new DefaultPromise();
+        future.addListener(new IFutureListener() {
+
+            @Override
+            public void operationCompleted(IFuture f) throws Exception {
+                if (!f.isSuccessful()) {
+                    propagateFailure(f, promise);
+                    return;
+                }
+                Object value;
+                try {
+                    value = fn.apply(f.getNow());
+                } catch (Throwable t) {
+                    promise.setFailure(t);
+                    return;
+                }
+                promise.setSuccess(value);
+            }
+        }, executor);
+        return promise;
+    }
+
+    /**
+     * @see IFuture#thenCompose(Function, Executor)
+     */
+    public static IFuture thenCompose(IFuture future, final Function<Object, ? extends IFuture> fn,
+            Executor executor) {
+        Objects.requireNonNull(fn, "fn");
+        final DefaultPromise promise = new DefaultPromise();
+        future.addListener(new IFutureListener() {
+
+            @Override
+            public void operationCompleted(IFuture f) throws Exception {
+                if (!f.isSuccessful()) {
+                    propagateFailure(f, promise);
+                    return;
+                }
+                IFuture next;
+                try {
+                    next = Objects.requireNonNull(fn.apply(f.getNow()), "fn returned null");
+                } catch (Throwable t) {
+                    promise.setFailure(t);
+                    return;
+                }
+                next.addListener(new IFutureListener() {
+
+                    @Override
+                    public void operationCompleted(IFuture n) throws Exception {
+                        propagate(n, promise);
+                    }
+                }, SynchronousExecutor.INSTANCE);
+            }
+        }, executor);
+        return promise;
+    }
+
+    /**
+     * @see #allOf(Collection)
+     */
+    public static IFuture allOf(IFuture... futures) {
+        return allOf(Arrays.asList(futures));
+    }
+
+    /**
+     * Succeeds with the unmodifiable list of all the results, in the order of
+     * futures, once all of them have succeeded. Fails (or is cancelled) as soon as
+     * any of them fails (or is cancelled), without waiting for the others.
+     */
+    public static IFuture allOf(Collection<? extends IFuture> futures) {
+        final DefaultPromise promise = new DefaultPromise();
+        final int size = futures.size();
+        if (size == 0) {
+            return promise.setSuccess(Collections.emptyList());
+        }
+        final Object[] results = new Object[size];
+        final AtomicInteger remaining = new AtomicInteger(size);
+        int i = 0;
+        for (IFuture future : futures) {
+            final int index = i++;
+            future.addListener(new IFutureListener() {
+
+                @Override
+                public void operationCompleted(IFuture f) throws Exception {
+                    if (!f.isSuccessful()) {
+                        propagateFailure(f, promise);
+                        return;
+                    }
+                    results[index] = f.getNow();
+                    if (remaining.decrementAndGet() == 0) {
+                        promise.setSuccess(Collections.unmodifiableList(Arrays.asList(results)));
+                    }
+                }
+            }, SynchronousExecutor.INSTANCE);
+        }
+        return promise;
+    }
+
+    /**
+     * @see #anyOf(Collection)
+     */
+    public static IFuture anyOf(IFuture... futures) {
+        return anyOf(Arrays.asList(futures));
+    }
+
+    /**
+     * Succeeds with the result of the first future to succeed, fails with the
+     * cause of the last failure if all of them fail.
+     *
+     * @throws IllegalArgumentException if futures is empty
+     */
+    public static IFuture anyOf(Collection<? extends IFuture> futures) {
+        if (futures.isEmpty()) {
+            throw new IllegalArgumentException("futures is empty");
+        }
+        final DefaultPromise promise = new DefaultPromise();
+        final AtomicInteger remaining = new AtomicInteger(futures.size());
+        for (IFuture future : futures) {
+            // one listener per future: the same future may appear more than once,
+            // and a shared listener instance would be registered on it only once
+            future.addListener(new IFutureListener() {
+
+                @Override
+                public void operationCompleted(IFuture f) throws Exception {
+                    if (f.isSuccessful()) {
+                        promise.setSuccess(f.getNow());
+                    } else if (remaining.decrementAndGet() == 0) {
+                        propagateFailure(f, promise);
+                    }
+                }
+            }, SynchronousExecutor.INSTANCE);
+        }
+        return promise;
+    }
+
+    /**
+     * A {@link CompletableFuture} completed with the outcome of future, cancelling
+     * it cancels future as well
+     */
+    public static CompletableFuture<Object> toCompletableFuture(final IFuture future) {
+        final CompletableFuture<Object> cf = new CompletableFuture<Object>() {
+
+            @Override
+            public boolean cancel(boolean mayInterruptIfRunning) {
+                boolean cancelled = super.cancel(mayInterruptIfRunning);
+                if (cancelled) {
+                    future.cancel(mayInterruptIfRunning);
+                }
+                return cancelled;
+            }
+        };
+        future.addListener(new IFutureListener() {
+
+            @Override
+            public void operationCompleted(IFuture f) throws Exception {
+                if (f.isSuccessful()) {
+                    cf.complete(f.getNow());
+                } else if (f.isCancelled()) {
+                    cf.cancel(false);
+                } else {
+                    cf.completeExceptionally(f.cause());
+                }
+            }
+        }, SynchronousExecutor.INSTANCE);
+        return cf;
+    }
+
+    /**
+     * An {@link IFuture} completed with the outcome of stage, cancelling it
+     * cancels stage as well if stage is a {@link Future}
+     */
+    public static IFuture fromCompletionStage(CompletionStage<?> stage) {
+        final StagePromise promise = new StagePromise(stage);
+        stage.whenComplete(new BiConsumer<Object, Throwable>() {
+
+            @Override
+            public void accept(Object value, Throwable t) {
+                if (t == null) {
+                    promise.setSuccess(value);
+                    return;
+                }
+                Throwable cause = t instanceof CompletionException && t.getCause() != null ? t.getCause() : t;
+                if (cause instanceof CancellationException) {
+                    promise.cancel(false);
+                } else {
+                    promise.setFailure(cause);
+                }
+            }
+        });
+        return promise;
+    }
+
+    private static void propagate(IFuture source, IPromise target) {
+        if (source.isSuccessful()) {
+            target.setSuccess(source.getNow());
+        } else {
+            propagateFailure(source, target);
+        }
+    }
+
+    private static void propagateFailure(IFuture source, IPromise target) {
+        if (source.isCancelled()) {
+            target.cancel(false);
+        } else {
+            target.setFailure(source.cause());
+        }
+    }
+
+    private static final class StagePromise extends DefaultPromise {
+
+        private static final long serialVersionUID = 3581396146364539526L;
+
+        private final transient CompletionStage<?> stage;
+
+        StagePromise(CompletionStage<?> stage) {
+            this.stage = stage;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            if (cancelled && stage instanceof Future) {
+                ((Future<?>) stage).cancel(mayInterruptIfRunning);
+            }
+            return cancelled;
+        }
+    }
+}
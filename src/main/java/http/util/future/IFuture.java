@@ -1,9 +1,11 @@
 package http.util.future;
 
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 
 /**
  * An enhanced {@link Future} that supports callback and attachments
@@ -37,4 +39,45 @@ public interface IFuture extends Future<Object> {
     Map<String, Object> getAttachments();
 
     void setAttachment(String name, Object value);
+
+    /**
+     * A future completed with fn applied to the result of this future once it
+     * succeeds, fn runs in the thread completing this future
+     *
+     * @see Futures
+     */
+    default IFuture thenApply(Function<Object, ?> fn) {
+        return Futures.thenApply(this, fn, SynchronousExecutor.INSTANCE);
+    }
+
+    /**
+     * Same as {@link #thenApply(Function)}, but fn runs on executor
+     */
+    default IFuture thenApply(Function<Object, ?> fn, Executor executor) {
+        return Futures.thenApply(this, fn, executor);
+    }
+
+    /**
+     * A future completed with the future returned by fn, which is applied to the
+     * result of this future once it succeeds in the thread completing this future
+     *
+     * @see Futures
+     */
+    default IFuture thenCompose(Function<Object, ? extends IFuture> fn) {
+        return Futures.thenCompose(this, fn, SynchronousExecutor.INSTANCE);
+    }
+
+    /**
+     * Same as {@link #thenCompose(Function)}, but fn runs on executor
+     */
+    default IFuture thenCompose(Function<Object, ? extends IFuture> fn, Executor executor) {
+        return Futures.thenCompose(this, fn, executor);
+    }
+
+    /**
+     * @see Futures#toCompletableFuture(IFuture)
+     */
+    default CompletableFuture<Object> toCompletableFuture() {
+        return Futures.toCompletableFuture(this);
+    }
 }
@@ -0,0 +1,167 @@
+package http.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioDatagramChannel;
+import io.netty.handler.codec.dns.DatagramDnsQuery;
+import io.netty.handler.codec.dns.DatagramDnsQueryDecoder;
+import io.netty.handler.codec.dns.DatagramDnsResponse;
+import io.netty.handler.codec.dns.DatagramDnsResponseEncoder;
+import io.netty.handler.codec.dns.DefaultDnsRawRecord;
+import io.netty.handler.codec.dns.DnsQuestion;
+import io.netty.handler.codec.dns.DnsRecordType;
+import io.netty.handler.codec.dns.DnsResponseCode;
+import io.netty.handler.codec.dns.DnsSection;
+import io.netty.util.concurrent.Future;
+
+/**
+ * {@link HostResolver}的测试, 查询发往进程内的DNS服务端
+ *
+ * @author lixiaohui
+ */
+public class HostResolverTest {
+
+    /** 记录的TTL(秒) */
+    private static final int TTL = 1;
+
+    private NioEventLoopGroup group;
+
+    private Channel dnsServer;
+
+    /** 主机名 -> A记录查询次数 */
+    private final ConcurrentMap<String, AtomicInteger> queries = new ConcurrentHashMap<>();
+
+    private HostResolver resolver;
+
+    @Before
+    public void setUp() throws Exception {
+        group = new NioEventLoopGroup(1);
+        dnsServer = new Bootstrap().group(group).channel(NioDatagramChannel.class)
+                .handler(new ChannelInitializer<Channel>() {
+
+                    @Override
+                    protected void initChannel(Channel ch) throws Exception {
+                        ch.pipeline().addLast(new DatagramDnsQueryDecoder(), new DatagramDnsResponseEncoder(),
+                                new StubDnsHandler());
+                    }
+                }).bind("127.0.0.1", 0).sync().channel();
+
+        AsyncHttpClientConfig config = new AsyncHttpClientConfig();
+        config.setDnsServers(Collections.singletonList((InetSocketAddress) dnsServer.localAddress()));
+        config.setDnsNegativeTtl(TTL);
+        resolver = new HostResolver(group.next(), false, config);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        resolver.close();
+        dnsServer.close().sync();
+        group.shutdownGracefully(0, 1, TimeUnit.SECONDS).sync();
+    }
+
+    @Test
+    public void resolveAll() throws Exception {
+        List<InetAddress> addresses = resolver.resolveAll("multi.test").get(5, TimeUnit.SECONDS);
+        assertEquals(Arrays.asList(InetAddress.getByName("127.0.0.1"), InetAddress.getByName("127.0.0.2")),
+                addresses);
+        assertEquals(InetAddress.getByName("127.0.0.1"), resolver.resolve("multi.test").get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void answersAreCachedForTheirTtl() throws Exception {
+        resolver.resolveAll("multi.test").get(5, TimeUnit.SECONDS);
+        resolver.resolveAll("multi.test").get(5, TimeUnit.SECONDS);
+        resolver.resolve("multi.test").get(5, TimeUnit.SECONDS);
+        assertEquals(1, queryCount("multi.test"));
+
+        Thread.sleep(TimeUnit.SECONDS.toMillis(TTL) + 500);
+        resolver.resolveAll("multi.test").get(5, TimeUnit.SECONDS);
+        assertEquals(2, queryCount("multi.test"));
+    }
+
+    @Test
+    public void failuresAreCachedForNegativeTtl() throws Exception {
+        Future<List<InetAddress>> f = resolver.resolveAll("missing.test").await();
+        assertFalse(f.isSuccess());
+        int count = queryCount("missing.test");
+        assertTrue(count > 0);
+
+        f = resolver.resolveAll("missing.test").await();
+        assertFalse(f.isSuccess());
+        assertEquals(count, queryCount("missing.test"));
+
+        Thread.sleep(TimeUnit.SECONDS.toMillis(TTL) + 500);
+        f = resolver.resolveAll("missing.test").await();
+        assertFalse(f.isSuccess());
+        assertTrue(queryCount("missing.test") > count);
+    }
+
+    @Test
+    public void ipAddressesAreNotQueried() throws Exception {
+        assertEquals(InetAddress.getByName("10.1.2.3"), resolver.resolve("10.1.2.3").get(5, TimeUnit.SECONDS));
+        assertTrue(queries.isEmpty());
+    }
+
+    private int queryCount(String host) {
+        AtomicInteger count = queries.get(host + ".");
+        return count == null ? 0 : count.get();
+    }
+
+    /**
+     * multi.test有两条A记录, 其它主机名都不存在(NXDOMAIN)
+     */
+    private final class StubDnsHandler extends SimpleChannelInboundHandler<DatagramDnsQuery> {
+
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, DatagramDnsQuery query) throws Exception {
+            DnsQuestion question = query.recordAt(DnsSection.QUESTION);
+            DatagramDnsResponse response = new DatagramDnsResponse(query.recipient(), query.sender(), query.id());
+            response.addRecord(DnsSection.QUESTION, question);
+            if (question.type() == DnsRecordType.A) {
+                AtomicInteger count = queries.get(question.name());
+                if (count == null) {
+                    AtomicInteger newCount = new AtomicInteger();
+                    count = queries.putIfAbsent(question.name(), newCount);
+                    if (count == null) {
+                        count = newCount;
+                    }
+                }
+                count.incrementAndGet();
+            }
+            if (question.name().equals("multi.test.")) {
+                if (question.type() == DnsRecordType.A) {
+                    for (int i = 1; i <= 2; i++) {
+                        response.addRecord(DnsSection.ANSWER, new DefaultDnsRawRecord(question.name(),
+                                DnsRecordType.A, TTL, Unpooled.wrappedBuffer(new byte[] { 127, 0, 0, (byte) i })));
+                    }
+                }
+            } else {
+                response.setCode(DnsResponseCode.NXDOMAIN);
+            }
+            ctx.writeAndFlush(response);
+        }
+    }
+}
@@ -0,0 +1,244 @@
+package http.client;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import http.HttpMethod;
+import http.HttpRequest;
+import http.HttpResponse;
+import http.HttpStatus;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.handler.codec.DecoderException;
+import io.netty.handler.codec.TooLongFrameException;
+import io.netty.util.CharsetUtil;
+
+/**
+ * {@link ResponseDecoder}的解码测试, 每个响应分别整块到达和逐字节到达(头和chunk长度行被拆分到多次读取中)
+ *
+ * @author lixiaohui
+ */
+public class ResponseDecoderTest {
+
+    private static final SocketAddress REMOTE_ADDRESS = new InetSocketAddress("127.0.0.1", 80);
+
+    private static AsyncHttpClient client;
+
+    private EmbeddedChannel channel;
+
+    @BeforeClass
+    public static void setUpClient() {
+        client = new AsyncHttpClient(new AsyncHttpClientConfig());
+    }
+
+    @AfterClass
+    public static void closeClient() {
+        client.close();
+    }
+
+    @After
+    public void closeChannel() {
+        if (channel != null) {
+            channel.finishAndReleaseAll();
+        }
+    }
+
+    @Test
+    public void contentLength() {
+        for (boolean split : new boolean[] { false, true }) {
+            open(Integer.MAX_VALUE);
+            ResponseFuture first = send(HttpMethod.GET);
+            ResponseFuture second = send(HttpMethod.GET);
+            receive("HTTP/1.1 200 OK\r\nContent-Length: 5\r\nX-Folded: a\r\n  b\r\n\r\nhello"
+                    + "HTTP/1.1 404 Not Found\r\ncontent-length: 0\r\n\r\n", split);
+
+            HttpResponse response = response(first);
+            assertEquals(HttpStatus.OK, response.getStatus());
+            assertEquals("hello", body(response));
+            assertEquals("a b", response.getHeaders().getFirst("x-folded"));
+            assertEquals(404, response(second).getStatus().getCode());
+            assertEquals("", body(response(second)));
+        }
+    }
+
+    @Test
+    public void chunkedWithTrailers() {
+        for (boolean split : new boolean[] { false, true }) {
+            open(Integer.MAX_VALUE);
+            ResponseFuture future = send(HttpMethod.GET);
+            receive("HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n"
+                    + "5;name=value\r\nhello\r\n6\r\n world\r\n0\r\nX-Trailer: t\r\n\r\n", split);
+
+            HttpResponse response = response(future);
+            assertEquals("hello world", body(response));
+            assertEquals("t", response.getHeaders().getFirst("X-Trailer"));
+            assertNull(response.getHeaders().getFirst("Transfer-Encoding"));
+            assertEquals("11", response.getHeaders().getFirst("Content-Length"));
+        }
+    }
+
+    @Test
+    public void informationalResponsesAreSkipped() {
+        for (boolean split : new boolean[] { false, true }) {
+            open(Integer.MAX_VALUE);
+            ResponseFuture future = send(HttpMethod.POST);
+            receive("HTTP/1.1 100 Continue\r\n\r\nHTTP/1.1 102 Processing\r\n\r\n"
+                    + "HTTP/1.1 201 Created\r\nContent-Length: 2\r\n\r\nok", split);
+
+            HttpResponse response = response(future);
+            assertEquals(HttpStatus.CREATED, response.getStatus());
+            assertEquals("ok", body(response));
+        }
+    }
+
+    @Test
+    public void responsesWithoutBody() {
+        for (boolean split : new boolean[] { false, true }) {
+            open(Integer.MAX_VALUE);
+            ResponseFuture head = send(HttpMethod.HEAD);
+            ResponseFuture noContent = send(HttpMethod.GET);
+            ResponseFuture notModified = send(HttpMethod.GET);
+            ResponseFuture next = send(HttpMethod.GET);
+            // HEAD, 204和304的Content-Length不表示随后有响应体
+            receive("HTTP/1.1 200 OK\r\nContent-Length: 10\r\n\r\n"
+                    + "HTTP/1.1 204 No Content\r\nContent-Length: 3\r\n\r\n"
+                    + "HTTP/1.1 304 Not Modified\r\nContent-Length: 7\r\n\r\n"
+                    + "HTTP/1.1 200 OK\r\nContent-Length: 4\r\n\r\nnext", split);
+
+            assertEquals("", body(response(head)));
+            assertEquals("10", response(head).getHeaders().getFirst("Content-Length"));
+            assertEquals(HttpStatus.NO_CONTENT, response(noContent).getStatus());
+            assertEquals("", body(response(noContent)));
+            assertEquals(304, response(notModified).getStatus().getCode());
+            assertEquals("", body(response(notModified)));
+            assertEquals("next", body(response(next)));
+        }
+    }
+
+    @Test
+    public void bodyUntilClose() {
+        for (boolean split : new boolean[] { false, true }) {
+            open(Integer.MAX_VALUE);
+            ResponseFuture future = send(HttpMethod.GET);
+            receive("HTTP/1.0 200 OK\r\nContent-Type: text/plain\r\n\r\nuntil ", split);
+            receive("close", split);
+            assertFalse(future.isDone());
+
+            channel.close();
+            assertEquals("until close", body(response(future)));
+        }
+    }
+
+    @Test
+    public void malformedResponses() {
+        String[] responses = {
+                "GARBAGE\r\n\r\n",
+                "HTTP/1.1 2x0 OK\r\nContent-Length: 0\r\n\r\n",
+                "HTTP/1.1 200 OK\r\nContent-Length: abc\r\n\r\n",
+                "HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\nzz\r\n",
+                "HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n3\r\nabcdef\r\n" };
+        for (String raw : responses) {
+            for (boolean split : new boolean[] { false, true }) {
+                open(Integer.MAX_VALUE);
+                ResponseFuture future = send(HttpMethod.GET);
+                DecoderException e = receiveMalformed(raw, split);
+
+                assertTrue(raw + " -> " + e, e instanceof CorruptedFrameException);
+                assertTrue(raw, future.isDone() && !future.isSuccessful());
+                assertFalse(raw, channel.isOpen());
+            }
+        }
+    }
+
+    @Test
+    public void contentLongerThanMaxContentLength() {
+        open(8);
+        ResponseFuture declared = send(HttpMethod.GET);
+        assertTrue(receiveMalformed("HTTP/1.1 200 OK\r\nContent-Length: 2147483647\r\n\r\n",
+                false) instanceof TooLongFrameException);
+        assertTrue(declared.isDone() && !declared.isSuccessful());
+        assertFalse(channel.isOpen());
+
+        open(8);
+        ResponseFuture chunked = send(HttpMethod.GET);
+        assertTrue(receiveMalformed("HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n5\r\nhello\r\n5\r\nworld\r\n",
+                true) instanceof TooLongFrameException);
+        assertTrue(chunked.isDone() && !chunked.isSuccessful());
+
+        open(8);
+        ResponseFuture fits = send(HttpMethod.GET);
+        receive("HTTP/1.1 200 OK\r\nContent-Length: 8\r\n\r\n12345678", true);
+        assertArrayEquals("12345678".getBytes(CharsetUtil.US_ASCII), response(fits).getBody());
+    }
+
+    private void open(int maxContentLength) {
+        if (channel != null) {
+            channel.finishAndReleaseAll();
+        }
+        // ResponseHandler按InetSocketAddress记录连接日志
+        channel = new EmbeddedChannel() {
+
+            @Override
+            protected SocketAddress remoteAddress0() {
+                return REMOTE_ADDRESS;
+            }
+        };
+        AsyncHttpClient.ResponseHandler handler = client.new ResponseHandler();
+        channel.pipeline().addLast(new ResponseDecoder(handler, false, false, maxContentLength), handler);
+    }
+
+    private ResponseFuture send(HttpMethod method) {
+        ResponseFuture future = new ResponseFuture(
+                HttpRequest.builder().uri("http://127.0.0.1/").method(method).build());
+        channel.writeOutbound(future);
+        channel.releaseOutbound();
+        return future;
+    }
+
+    private void receive(String raw, boolean split) {
+        byte[] bytes = raw.getBytes(CharsetUtil.ISO_8859_1);
+        if (!split) {
+            channel.writeInbound(Unpooled.wrappedBuffer(bytes));
+            return;
+        }
+        for (byte b : bytes) {
+            channel.writeInbound(Unpooled.wrappedBuffer(new byte[] { b }));
+        }
+    }
+
+    /**
+     * 解码器关闭连接后, EmbeddedChannel在close中同步执行了连接断开和注销, 解码异常到达pipeline末尾, 由writeInbound抛出
+     */
+    private DecoderException receiveMalformed(String raw, boolean split) {
+        try {
+            receive(raw, split);
+        } catch (DecoderException e) {
+            return e;
+        }
+        fail("Malformed response accepted: " + raw);
+        return null;
+    }
+
+    private static HttpResponse response(ResponseFuture future) {
+        assertTrue("response not received", future.isDone());
+        assertTrue(String.valueOf(future.cause()), future.isSuccessful());
+        return (HttpResponse) future.getNow();
+    }
+
+    private static String body(HttpResponse response) {
+        return new String(response.getBody(), CharsetUtil.ISO_8859_1);
+    }
+}